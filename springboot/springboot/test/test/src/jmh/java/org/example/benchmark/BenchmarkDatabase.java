@@ -0,0 +1,79 @@
+package org.example.benchmark;
+
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/8/30 14:18
+ * @school hnist
+ */
+public final class BenchmarkDatabase {
+    private BenchmarkDatabase() {}
+
+    /**
+     * 建一个MySQL模式的H2内存库并灌入rows条t_user
+     * @param name 库名，同一个fork里不同的库互不影响
+     */
+    public static PooledDataSource create(String name, int rows) throws SQLException {
+        // H2会对同一个连接上重复的相同查询直接复用上次的结果，关掉查询缓存才测得到真实的执行代价
+        String url = "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1;QUERY_CACHE_SIZE=0";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS t_user");
+            statement.execute("CREATE TABLE t_user(id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(64), age INT)");
+            statement.execute("CREATE INDEX idx_user_age ON t_user(age)");
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO t_user(id,name,age) VALUES(?,?,?)")) {
+                for (int i = 1; i <= rows; i++) {
+                    ps.setLong(1, i);
+                    ps.setString(2, "user" + i);
+                    ps.setInt(3, 18 + i % 50);
+                    ps.addBatch();
+                    if (i % 1000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            connection.commit();
+        }
+        PooledDataSource dataSource = new PooledDataSource("org.h2.Driver", url, "sa", "");
+        dataSource.setPoolMaximumActiveConnections(16);
+        return dataSource;
+    }
+
+    /**
+     * 和application.yml里一样的mybatis配置，加载同一份testmapper.xml
+     */
+    public static SqlSessionFactory sessionFactory(DataSource dataSource, Interceptor... interceptors) throws Exception {
+        Configuration configuration = new Configuration(new Environment("benchmark", new JdbcTransactionFactory(), dataSource));
+        configuration.setMapUnderscoreToCamelCase(true);
+        // mapper里配了二级缓存，基准测的是sql本身，不能让重复的分页请求直接命中缓存
+        configuration.setCacheEnabled(false);
+        configuration.getTypeAliasRegistry().registerAliases("org.example.entity");
+        try (InputStream in = Resources.getResourceAsStream("mapper/testmapper.xml")) {
+            new XMLMapperBuilder(in, configuration, "mapper/testmapper.xml", configuration.getSqlFragments()).parse();
+        }
+        for (Interceptor interceptor : interceptors) {
+            configuration.addInterceptor(interceptor);
+        }
+        return new SqlSessionFactoryBuilder().build(configuration);
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.benchmark;
+
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.example.entity.User;
+import org.example.plugin.CountMode;
+import org.example.plugin.PageParam;
+import org.example.plugin.PageResult;
+import org.example.plugin.PageScope;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin2.Paginationincepter2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按非主键列排序的深分页，原样 LIMIT offset,size 和延迟关联改写在不同offset下的对比
+ * 运行：mvn -P benchmark compile exec:exec -Djmh.args="DeferredJoinBenchmark"
+ *
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/9/16 21:37
+ * @school hnist
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeferredJoinBenchmark {
+
+    // age有索引，按(age, id)排序时子查询只扫索引
+    public interface SortedUserMapper {
+        @Select("SELECT * FROM t_user ORDER BY age, id")
+        List<User> findAllByAge();
+    }
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1000", "20000", "90000"})
+    public int offset;
+
+    // off原样limit，on走延迟关联
+    @Param({"off", "on"})
+    public String deferred;
+
+    @Param({"20"})
+    public int pageSize;
+
+    private PooledDataSource dataSource;
+    private SqlSessionFactory factory;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataSource = BenchmarkDatabase.create("deferred_" + rows, rows);
+        // InnoDB的二级索引自带主键，H2要显式建(age, id)才能按索引顺序读
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE INDEX idx_user_age_id ON t_user(age, id)");
+        }
+        PaginationSupport support = new PaginationSupport();
+        if ("on".equals(deferred)) {
+            support.enableDeferredJoin(1);
+        }
+        factory = BenchmarkDatabase.sessionFactory(dataSource, new Paginationincepter2(support));
+        factory.getConfiguration().addMapper(SortedUserMapper.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    public PageResult<User> page() {
+        try (SqlSession session = factory.openSession(true)) {
+            // 只比较分页sql本身，不count
+            return PageScope.query(new PageParam(offset / pageSize + 1, pageSize, CountMode.NONE),
+                    session.getMapper(SortedUserMapper.class)::findAllByAge);
+        }
+    }
+}
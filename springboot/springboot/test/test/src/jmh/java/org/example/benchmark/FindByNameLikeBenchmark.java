@@ -0,0 +1,73 @@
+package org.example.benchmark;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.example.entity.User;
+import org.example.mapper.TestMapper;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin2.Paginationincepter2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TestMapper.findBynamelike 的 like '%x%' 全表扫描，插件装着但不分页
+ * 运行：mvn -P benchmark compile exec:exec -Djmh.args="FindByNameLikeBenchmark -prof gc"
+ *
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/8/30 15:30
+ * @school hnist
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindByNameLikeBenchmark {
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    // 命中很多行 / 只命中一行
+    @Param({"user1", "user7777"})
+    public String name;
+
+    private PooledDataSource dataSource;
+    private SqlSessionFactory factory;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataSource = BenchmarkDatabase.create("like_" + rows, rows);
+        PaginationSupport support = new PaginationSupport();
+        // 和MybatisConfig一样只注册一个分页插件
+        factory = BenchmarkDatabase.sessionFactory(dataSource, new Paginationincepter2(support));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    public List<User> findByNameLike() {
+        try (SqlSession session = factory.openSession(true)) {
+            return session.getMapper(TestMapper.class).findBynamelike(name);
+        }
+    }
+}
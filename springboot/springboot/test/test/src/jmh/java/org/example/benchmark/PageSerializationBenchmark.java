@@ -0,0 +1,89 @@
+package org.example.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.codec.ColumnarPageWriter;
+import org.example.entity.User;
+import org.example.plugin.PageResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分页响应的序列化：默认的Jackson对象数组 vs 列式JSON，不查库
+ * 两种格式的响应字节数在setup里打印
+ * 运行：mvn -P benchmark compile exec:exec -Djmh.args="PageSerializationBenchmark -prof gc"
+ *
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/9/22 20:25
+ * @school hnist
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageSerializationBenchmark {
+
+    @Param({"20", "1000"})
+    public int pageSize;
+
+    private ObjectMapper objectMapper;
+    private ColumnarPageWriter columnarWriter;
+    private PageResult<User> page;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // 和Spring Boot默认的ObjectMapper配置一样
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        columnarWriter = new ColumnarPageWriter(objectMapper);
+        List<User> users = new ArrayList<>(pageSize);
+        for (int i = 1; i <= pageSize; i++) {
+            User user = new User();
+            user.setId(100000L + i);
+            user.setName("user" + (100000 + i));
+            user.setAge(18 + i % 50);
+            users.add(user);
+        }
+        page = new PageResult<>(1_000_000L, users);
+        page.setHasNext(true);
+        int json = objectMapper.writeValueAsBytes(page).length;
+        int columnar = columnarWriter.toBytes(page).length;
+        System.out.printf("%npageSize=%d json=%d bytes columnar=%d bytes (%.0f%%)%n",
+                pageSize, json, columnar, columnar * 100.0 / json);
+    }
+
+    @Benchmark
+    public byte[] jackson() throws Exception {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] columnar() throws Exception {
+        return columnarWriter.toBytes(page);
+    }
+
+    // 直接写进输出流，不先攒成byte[]，接近不走响应缓存时的代价
+    @Benchmark
+    public int columnarStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        columnarWriter.write(page, out);
+        return out.size();
+    }
+}
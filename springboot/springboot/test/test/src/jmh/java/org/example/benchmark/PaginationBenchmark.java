@@ -0,0 +1,96 @@
+package org.example.benchmark;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.example.entity.User;
+import org.example.mapper.TestMapper;
+import org.example.plugin.CountMode;
+import org.example.plugin.LruCountCache;
+import org.example.plugin.PageParam;
+import org.example.plugin.PageResult;
+import org.example.plugin.PageScope;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin.Paginationincepter;
+import org.example.plugin2.Paginationincepter2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 两个分页插件在浅页/深页、每次count/count走缓存/不count下的吞吐和每次调用的分配量
+ * 运行：mvn -P benchmark compile exec:exec -Djmh.args="PaginationBenchmark -prof gc"
+ *
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/8/30 14:52
+ * @school hnist
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaginationBenchmark {
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"plugin1", "plugin2"})
+    public String interceptor;
+
+    // shallow取第2页，deep取倒数第2页
+    @Param({"shallow", "deep"})
+    public String depth;
+
+    // exact每次都count，cached走count缓存，none不count、多取一行判断hasNext
+    @Param({"exact", "cached", "none"})
+    public String count;
+
+    @Param({"20"})
+    public int pageSize;
+
+    private PooledDataSource dataSource;
+    private SqlSessionFactory factory;
+    private int pageNum;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataSource = BenchmarkDatabase.create("page_" + rows, rows);
+        PaginationSupport support = new PaginationSupport("cached".equals(count) ? new LruCountCache(1024, 0) : null);
+        // 两个插件共用PageScope，同时注册时外层的那个会先取走作用域，所以每次只注册要测的那个
+        factory = BenchmarkDatabase.sessionFactory(dataSource,
+                "plugin1".equals(interceptor) ? new Paginationincepter(support) : new Paginationincepter2(support));
+        pageNum = "deep".equals(depth) ? rows / pageSize - 1 : 2;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    public PageResult<User> page() {
+        PageParam pageParam = new PageParam(pageNum, pageSize, "none".equals(count) ? CountMode.NONE : CountMode.EXACT);
+        try (SqlSession session = factory.openSession(true)) {
+            TestMapper mapper = session.getMapper(TestMapper.class);
+            if ("plugin1".equals(interceptor)) {
+                return PageScope.query(pageParam, mapper::findAllPage);
+            }
+            return PageScope.query(pageParam, mapper::findAllPage2);
+        }
+    }
+}
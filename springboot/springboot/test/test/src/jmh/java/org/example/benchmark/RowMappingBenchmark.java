@@ -0,0 +1,119 @@
+package org.example.benchmark;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.example.entity.User;
+import org.example.mapper.TestMapper;
+import org.example.mapping.CompiledResultSetInterceptor;
+import org.example.mapping.RowMapper;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin2.Paginationincepter2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 整表读出ROWS行映射成User：MyBatis反射映射 vs 编译的行映射，以及jdbcTest里按列名取值 vs 按下标
+ * 每次调用算ROWS个操作，得分就是每秒行数，-prof gc的gc.alloc.rate.norm就是每行分配的字节
+ * 运行：mvn -P benchmark compile exec:exec -Djmh.args="RowMappingBenchmark -prof gc"
+ *
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/9/23 14:10
+ * @school hnist
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMappingBenchmark {
+    private static final int ROWS = 10000;
+    private static final String SQL = "SELECT id, name, age FROM t_user";
+
+    private PooledDataSource dataSource;
+    private SqlSessionFactory reflective;
+    private SqlSessionFactory compiled;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataSource = BenchmarkDatabase.create("row_mapping", ROWS);
+        reflective = BenchmarkDatabase.sessionFactory(dataSource, new Paginationincepter2(new PaginationSupport()));
+        compiled = BenchmarkDatabase.sessionFactory(dataSource, new Paginationincepter2(new PaginationSupport()),
+                new CompiledResultSetInterceptor(User.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<User> mybatisReflective() {
+        try (SqlSession session = reflective.openSession(true)) {
+            return session.getMapper(TestMapper.class).findAllPage();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<User> mybatisCompiled() {
+        try (SqlSession session = compiled.openSession(true)) {
+            return session.getMapper(TestMapper.class).findAllPage();
+        }
+    }
+
+    // jdbcTest.findUsersByNameLike原来的写法，每行按列名取值
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<User> jdbcByName() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SQL);
+             ResultSet rs = ps.executeQuery()) {
+            List<User> list = new ArrayList<>(ROWS);
+            while (rs.next()) {
+                User user = new User();
+                user.setId(rs.getLong("id"));
+                user.setName(rs.getString("name"));
+                user.setAge(rs.getInt("age"));
+                list.add(user);
+            }
+            return list;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<User> jdbcCompiled() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement(SQL);
+             ResultSet rs = ps.executeQuery()) {
+            RowMapper.Rows<User> rows = RowMapper.of(User.class).bind(rs.getMetaData());
+            List<User> list = new ArrayList<>(ROWS);
+            while (rs.next()) {
+                list.add(rows.map(rs));
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.benchmark;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.example.plugin.PageParam;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin.SqlRewriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分页插件每次调用准备分页语句的开销，不查库：
+ * rebuild是原来的做法，正则去分号、把limit拼进sql、每次copy一份MappedStatement再算CacheKey；
+ * reuse是现在的做法，改写后的sql按语句缓存，limit按参数绑定，直接用原MappedStatement算CacheKey
+ * 运行：mvn -P benchmark compile exec:exec -Djmh.args="StatementPreparationBenchmark -prof gc"
+ *
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/9/23 14:36
+ * @school hnist
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementPreparationBenchmark {
+
+    // 一个没有参数，一个带一个参数
+    @Param({"findAllPage2", "findBynamelike"})
+    public String statement;
+
+    private final PageParam page = new PageParam(50, 20);
+    private PooledDataSource dataSource;
+    private MappedStatement ms;
+    private Object parameterObject;
+    private Executor executor;
+    private PaginationSupport support;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // 只用来建Configuration，不会真的连库
+        dataSource = new PooledDataSource("org.h2.Driver", "jdbc:h2:mem:statement", "sa", "");
+        Configuration configuration = BenchmarkDatabase.sessionFactory(dataSource).getConfiguration();
+        ms = configuration.getMappedStatement("org.example.mapper.TestMapper." + statement);
+        parameterObject = "findBynamelike".equals(statement) ? "user1" : null;
+        executor = configuration.newExecutor(new JdbcTransaction(dataSource, null, true), ExecutorType.SIMPLE);
+        support = new PaginationSupport();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close(false);
+        dataSource.forceCloseAll();
+    }
+
+    @Benchmark
+    public void rebuild(Blackhole bh) {
+        BoundSql boundSql = ms.getBoundSql(parameterObject);
+        String originSql = boundSql.getSql().trim();
+        originSql = originSql.replaceAll(";\\s*$", "");
+        String pageSql = originSql + " LIMIT " + page.offset() + "," + page.getPageSize();
+        BoundSql newBoundSql = new BoundSql(ms.getConfiguration(), pageSql, boundSql.getParameterMappings(), parameterObject);
+        for (ParameterMapping pm : boundSql.getParameterMappings()) {
+            String prop = pm.getProperty();
+            if (boundSql.hasAdditionalParameter(prop)) {
+                newBoundSql.setAdditionalParameter(prop, boundSql.getAdditionalParameter(prop));
+            }
+        }
+        MappedStatement newMs = copyMappedStatement(ms, parameter -> newBoundSql);
+        CacheKey cacheKey = executor.createCacheKey(newMs, parameterObject, RowBounds.DEFAULT, newBoundSql);
+        // executor.query(ms, ...)的4参数版本还会再取一次BoundSql
+        bh.consume(newMs.getBoundSql(parameterObject));
+        bh.consume(cacheKey);
+    }
+
+    @Benchmark
+    public void reuse(Blackhole bh) {
+        BoundSql boundSql = ms.getBoundSql(parameterObject);
+        SqlRewriter.Rewritten rewritten = support.getSqlRewriter().rewrite(ms, boundSql.getSql());
+        BoundSql pageBoundSql = support.offsetPageBoundSql(ms, boundSql, rewritten, parameterObject, page);
+        bh.consume(pageBoundSql);
+        bh.consume(executor.createCacheKey(ms, parameterObject, RowBounds.DEFAULT, pageBoundSql));
+    }
+
+    // 和原来Paginationincepter2里的copyMappedStatement一样
+    private static MappedStatement copyMappedStatement(MappedStatement ms, SqlSource sqlSource) {
+        MappedStatement.Builder builder = new MappedStatement.Builder(ms.getConfiguration(), ms.getId(), sqlSource, ms.getSqlCommandType())
+                .resource(ms.getResource())
+                .fetchSize(ms.getFetchSize())
+                .statementType(ms.getStatementType())
+                .keyGenerator(ms.getKeyGenerator())
+                .timeout(ms.getTimeout())
+                .parameterMap(ms.getParameterMap())
+                .resultMaps(ms.getResultMaps())
+                .resultSetType(ms.getResultSetType())
+                .cache(ms.getCache())
+                .flushCacheRequired(ms.isFlushCacheRequired())
+                .useCache(ms.isUseCache());
+        if (ms.getKeyProperties() != null && ms.getKeyProperties().length > 0) {
+            builder.keyProperty(String.join(",", ms.getKeyProperties()));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.benchmark;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.example.datasource.BulkheadDataSource;
+import org.example.mapper.TestMapper;
+import org.example.plugin.PageParam;
+import org.example.plugin.PageScope;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin2.Paginationincepter2;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 平台线程池（和Tomcat默认一样200个线程）和每个请求一个虚拟线程的吞吐、p99对比
+ * 每个请求：分页查询 + 持有连接dbMillis（模拟数据库耗时）+ 释放连接后ioMillis（模拟调用其他服务），连接数由BulkheadDataSource限制
+ * 运行：mvn -P benchmark compile exec:exec -Djmh.main=org.example.benchmark.VirtualThreadLoadTest -Djmh.args="20000 2000 2 20"
+ * 参数依次是请求数、同时在途的请求数、dbMillis、ioMillis
+ * 虚拟线程需要JDK 21，低版本只跑平台线程、没有对比结果；两边要在同一台机器、同一个JDK 21上跑出来才能比较
+ *
+ * @author yufengyang
+ * @Package org.example.benchmark
+ * @date 2025/9/18 17:10
+ * @school hnist
+ */
+public final class VirtualThreadLoadTest {
+    private static final int PLATFORM_THREADS = 200;
+    private static final int POOL_SIZE = 16;
+
+    private VirtualThreadLoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long dbMillis = args.length > 2 ? Long.parseLong(args[2]) : 2;
+        long ioMillis = args.length > 3 ? Long.parseLong(args[3]) : 20;
+
+        PooledDataSource pool = BenchmarkDatabase.create("load", 10000);
+        pool.setPoolMaximumActiveConnections(POOL_SIZE);
+        BulkheadDataSource dataSource = new BulkheadDataSource(pool, POOL_SIZE, 30000);
+        SqlSessionFactory factory = BenchmarkDatabase.sessionFactory(dataSource, new Paginationincepter2(new PaginationSupport()));
+
+        System.out.printf("requests=%d concurrency=%d dbMillis=%d ioMillis=%d pool=%d%n", requests, concurrency, dbMillis, ioMillis, POOL_SIZE);
+        // 先预热一轮再测
+        run("platform", Executors.newFixedThreadPool(PLATFORM_THREADS), factory, requests / 4, concurrency, dbMillis, ioMillis, false);
+        run("platform", Executors.newFixedThreadPool(PLATFORM_THREADS), factory, requests, concurrency, dbMillis, ioMillis, true);
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual == null) {
+            System.out.println("virtual   当前JDK " + Runtime.version() + " 没有虚拟线程，需要JDK 21");
+        } else {
+            run("virtual", virtual, factory, requests / 4, concurrency, dbMillis, ioMillis, false);
+            run("virtual", newVirtualThreadPerTaskExecutor(), factory, requests, concurrency, dbMillis, ioMillis, true);
+        }
+        System.out.println("bulkhead rejected=" + dataSource.getRejected());
+        pool.forceCloseAll();
+    }
+
+    private static void run(String name, ExecutorService executor, SqlSessionFactory factory, int requests, int concurrency,
+                            long dbMillis, long ioMillis, boolean print) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int n = i;
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    handle(factory, dbMillis, ioMillis);
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    // 包括在线程池里排队的时间
+                    latencies[n] = System.nanoTime() - submitted;
+                    inFlight.release();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        if (print) {
+            Arrays.sort(latencies);
+            System.out.printf("%-9s throughput=%.0f req/s p50=%.1fms p99=%.1fms max=%.1fms errors=%d%n", name,
+                    requests / (elapsed / 1e9), percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    latencies[latencies.length - 1] / 1e6, errors.get());
+        }
+    }
+
+    // 和TestService.page2一样的分页查询，查完在连接上再停dbMillis
+    private static void handle(SqlSessionFactory factory, long dbMillis, long ioMillis) throws InterruptedException {
+        try (SqlSession session = factory.openSession(true)) {
+            PageScope.query(new PageParam(ThreadLocalRandom.current().nextInt(1, 100), 20), session.getMapper(TestMapper.class)::findAllPage2);
+            Thread.sleep(dbMillis);
+        }
+        Thread.sleep(ioMillis);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+    // 编译目标是17，JDK 21上通过反射拿虚拟线程的executor
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
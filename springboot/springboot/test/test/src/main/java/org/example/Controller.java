@@ -1,12 +1,32 @@
 package org.example;
 
+import org.example.cache.PageBodyCache;
+import org.example.codec.ColumnarPageWriter;
 import org.example.entity.User;
+import org.example.mapper.TestMapper;
+import org.example.plugin.CountMode;
 import org.example.plugin.PageParam;
 import org.example.plugin.PageResult;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.connector.ClientAbortException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * @author yufengyang
@@ -17,8 +37,18 @@ import java.util.List;
 @RestController
 @RequestMapping("/users")
 public class Controller {
+    // 版本号按mapper namespace计，和count缓存的失效粒度一样
+    private static final String USER_TABLE = TestMapper.class.getName();
     @Autowired
     private TestService testService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private PageBodyCache pageBodyCache;
+    @Autowired
+    private ColumnarPageWriter columnarPageWriter;
+    @Value("${users.batch.chunk-size:500}")
+    private int batchChunkSize;
 
     @GetMapping(value = "/find",params = "id")
     public void findUsers(@RequestParam("id") long id){
@@ -37,17 +67,90 @@ public class Controller {
         testService.addUser(user);
     }
 
+    // 批量导入：JSON数组或NDJSON（每行一个user），流式解析，不把整个请求体读进内存
+    @PostMapping(value = "/batch",consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public List<Long> addUsers(HttpServletRequest request,@RequestParam(required = false) Integer chunkSize) throws IOException {
+        try (MappingIterator<User> users = objectMapper.readerFor(User.class).readValues(request.getInputStream())) {
+            return testService.addUsers(users, chunkSize != null && chunkSize > 0 ? chunkSize : batchChunkSize);
+        }
+    }
+
+    // 全表导出，format=ndjson（默认）或csv，直接写响应流，不经过分页插件
+    @GetMapping("/export")
+    public void export(@RequestParam(defaultValue = "ndjson") String format, HttpServletResponse response) throws IOException {
+        boolean csv = "csv".equalsIgnoreCase(format);
+        if (!csv && !"ndjson".equalsIgnoreCase(format)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "format只支持ndjson或csv");
+        }
+        response.setContentType(csv ? "text/csv;charset=UTF-8" : MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=users." + (csv ? "csv" : "ndjson"));
+        try {
+            testService.export(response.getOutputStream(), csv);
+        } catch (ClientAbortException e) {
+            // 客户端中途断开，游标和事务已经关闭，响应也写不回去了
+        }
+    }
+
+    // 分页接口带ETag：客户端带If-None-Match轮询时表没被写过直接304，不查库也不序列化
     @GetMapping("/page1")
-    public PageResult<User> page1(@RequestParam int pageNum,@RequestParam int pagesize){
-        PageParam pageParam = new PageParam(pageNum, pagesize);
-        PageResult<User> pageResult = testService.page(pageParam);
-        return pageResult;
+    // count=ESTIMATED时不带条件的查询用表统计信息估算总数，返回的exact为false
+    public ResponseEntity<byte[]> page1(@RequestParam int pageNum,@RequestParam int pagesize,
+                                        @RequestParam(defaultValue = "EXACT") CountMode count,
+                                        WebRequest request) throws IOException {
+        PageParam pageParam = new PageParam(pageNum, pagesize, count);
+        return cachedPage(request, "page1:" + pageNum + ":" + pagesize + ":" + count, () -> testService.page(pageParam));
     }
+    // count=NONE给无限滚动用：不查总数，只返回hasNext
     @GetMapping("/page2")
-    public PageResult<User> page2(@RequestParam int pageNum,@RequestParam int pagesize){
-        PageParam pageParam = new PageParam(pageNum, pagesize);
-        PageResult<User> pageResult = testService.page2(pageParam);
-        return pageResult;
+    public ResponseEntity<byte[]> page2(@RequestParam int pageNum,@RequestParam int pagesize,
+                                        @RequestParam(defaultValue = "EXACT") CountMode count,
+                                        WebRequest request) throws IOException {
+        PageParam pageParam = new PageParam(pageNum, pagesize, count);
+        return cachedPage(request, "page2:" + pageNum + ":" + pagesize + ":" + count, () -> testService.page2(pageParam));
+    }
+    // keyset分页，lastId传上一页返回的nextCursor，不传则从第一页开始；默认不查总数，要total时传count=EXACT
+    @GetMapping(value = "/page2",params = "seek")
+    public ResponseEntity<byte[]> page2(@RequestParam(required = false) Long lastId,@RequestParam int pagesize,
+                                        @RequestParam(defaultValue = "NONE") CountMode count,
+                                        WebRequest request) throws IOException {
+        return cachedPage(request, "seek:" + lastId + ":" + pagesize + ":" + count, () -> testService.seek(lastId, pagesize, count));
+    }
+
+    // 先按表版本号比对ETag，对不上再取缓存的响应体，都没有才查库；版本号要在查库之前取
+    // Accept里要了application/vnd.page.columnar+json时返回列式JSON，两种格式的ETag和缓存分开
+    private ResponseEntity<byte[]> cachedPage(WebRequest request, String key, Supplier<PageResult<User>> query) throws IOException {
+        boolean columnar = acceptsColumnar(request.getHeader(HttpHeaders.ACCEPT));
+        long version = pageBodyCache.version(USER_TABLE);
+        String etag = pageBodyCache.etag(USER_TABLE, version, columnar ? "columnar" : null);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        byte[] body = columnar
+                ? pageBodyCache.get(USER_TABLE, version, "columnar:" + key, () -> columnarPageWriter.toBytes(query.get()))
+                : pageBodyCache.get(USER_TABLE, version, key, () -> objectMapper.writeValueAsBytes(query.get()));
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT)
+                .contentType(columnar ? ColumnarPageWriter.MEDIA_TYPE : MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    // 只有明确列出列式类型才用，*/*或者application/json还是原来的对象数组
+    private static boolean acceptsColumnar(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return false;
+        }
+        try {
+            for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+                if (ColumnarPageWriter.MEDIA_TYPE.equalsTypeAndSubtype(mediaType) && mediaType.getQualityValue() > 0) {
+                    return true;
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            // Accept写错了按默认格式返回
+        }
+        return false;
     }
 
 }
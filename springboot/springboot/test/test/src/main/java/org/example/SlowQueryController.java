@@ -0,0 +1,34 @@
+package org.example;
+
+import org.example.plugin.SlowQueryRecorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * @author yufengyang
+ * @Package org.example
+ * @date 2025/9/4 23:02
+ * @school hnist
+ */
+@RestController
+@RequestMapping("/slow-queries")
+public class SlowQueryController {
+    @Autowired
+    private SlowQueryRecorder slowQueryRecorder;
+
+    // 最近的慢查询，新的在前
+    @GetMapping
+    public List<SlowQueryRecorder.SlowQuery> recent(){
+        return slowQueryRecorder.recent();
+    }
+
+    // 最慢的几条sql，带EXPLAIN执行计划
+    @GetMapping("/worst")
+    public List<SlowQueryRecorder.Offender> worst(){
+        return slowQueryRecorder.worst();
+    }
+}
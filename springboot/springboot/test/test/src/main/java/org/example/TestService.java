@@ -1,16 +1,32 @@
 package org.example;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.ibatis.cursor.Cursor;
+import org.example.cache.NearCache;
 import org.example.entity.User;
 import org.example.mapper.TestMapper;
+import org.example.plugin.CountMode;
 import org.example.plugin.PageParam;
 import org.example.plugin.PageResult;
-import org.example.plugin.PaginationContext;
-import org.example.plugin2.Page;
-import org.example.plugin2.PageHelper;
+import org.example.plugin.PageScope;
+import org.example.plugin2.KeysetParam;
+import org.example.search.TrigramIndex;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -23,8 +39,22 @@ import java.util.List;
 public class TestService {
     @Autowired
     private TestMapper testMapper;
+    @Autowired
+    private ObjectMapper objectMapper;
+    // users.name-index.enabled=false时为null，名字模糊查询全部走数据库
+    @Autowired(required = false)
+    private TrigramIndex nameIndex;
+    @Value("${users.name-index.max-candidates:1000}")
+    private int maxCandidates;
+    // users.near-cache.enabled=false时为null
+    @Autowired(required = false)
+    private NearCache<Long, List<User>> userCache;
     private PageResult<User> pageResult;
     public List<User> findusers(long id) {
+        if(userCache != null){
+            // 缓存里的list是共享的，给调用方一份拷贝
+            return new ArrayList<>(userCache.get(id, key -> testMapper.findByid(key)));
+        }
         ArrayList<User> list = new ArrayList<>();
         list = testMapper.findByid(id);
         return list;
@@ -32,6 +62,10 @@ public class TestService {
 
     public List<User> findusersByname(int status, String name) {
         if(status == 1){
+            List<User> indexed = findByNameIndex(name);
+            if(indexed != null){
+                return indexed;
+            }
             List<User> list = testMapper.findBynamelike(name);
             return list;
         }
@@ -39,23 +73,151 @@ public class TestService {
         return list;
     }
 
+    /**
+     * 名字索引只负责缩小范围，候选行按主键取回后再按原文过滤掉误匹配
+     * @return 不能走索引时返回null，由调用方走数据库LIKE
+     */
+    private List<User> findByNameIndex(String name) {
+        // 带LIKE通配符或转义符的按数据库语义处理
+        if (nameIndex == null || name == null || name.indexOf('%') >= 0 || name.indexOf('_') >= 0 || name.indexOf('\\') >= 0) {
+            return null;
+        }
+        long[] ids = nameIndex.search(name);
+        // 候选太多时按主键取和全表扫描差不多，直接交给数据库
+        if (ids == null || ids.length > maxCandidates) {
+            return null;
+        }
+        List<User> list = new ArrayList<>(ids.length);
+        if (ids.length == 0) {
+            return list;
+        }
+        String needle = TrigramIndex.normalize(name);
+        for (User user : testMapper.findByIds(ids)) {
+            if (user.getName() != null && TrigramIndex.normalize(user.getName()).contains(needle)) {
+                list.add(user);
+            }
+        }
+        return list;
+    }
+
+    // 启动时用游标把全表的名字读进索引
+    @Transactional(readOnly = true)
+    public void loadNameIndex(TrigramIndex index) throws IOException {
+        try (Cursor<User> users = testMapper.exportAll()) {
+            for (User user : users) {
+                index.add(user.getId(), user.getName());
+            }
+        }
+        index.markReady();
+    }
+
     public void addUser(User user) {
         testMapper.addUser(user);
+        afterWrite(user);
+    }
+
+    // 每个写操作之后调用：更新名字索引，findByid缓存里这个id的结果（包括之前缓存的空结果）作废
+    private void afterWrite(User user) {
+        if (user.getId() == null) {
+            return;
+        }
+        if (nameIndex != null) {
+            nameIndex.add(user.getId(), user.getName());
+        }
+        if (userCache != null) {
+            userCache.invalidate(user.getId());
+        }
+    }
+
+    /**
+     * 边读边插，每chunkSize条一条多行insert，每批单独提交
+     * @return 数据库生成的id，顺序和输入一致
+     */
+    public List<Long> addUsers(Iterator<User> users, int chunkSize) {
+        List<Long> ids = new ArrayList<>();
+        List<User> chunk = new ArrayList<>(chunkSize);
+        while (users.hasNext()) {
+            chunk.add(users.next());
+            if (chunk.size() == chunkSize) {
+                insertChunk(chunk, ids);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            insertChunk(chunk, ids);
+        }
+        return ids;
+    }
+
+    private void insertChunk(List<User> chunk, List<Long> ids) {
+        testMapper.addUsers(chunk);
+        for (User user : chunk) {
+            ids.add(user.getId());
+            afterWrite(user);
+        }
+        chunk.clear();
+    }
+
+    /**
+     * 全表导出，游标逐行读、逐行写，内存占用和表大小无关
+     * 输出流写不动时这里跟着阻塞，不会继续从数据库读；客户端断开时写出IOException，游标随之关闭
+     */
+    @Transactional(readOnly = true)
+    public void export(OutputStream out, boolean csv) throws IOException {
+        try (Cursor<User> users = testMapper.exportAll()) {
+            if (csv) {
+                writeCsv(users, out);
+            } else {
+                writeNdjson(users, out);
+            }
+        }
+    }
+
+    private void writeNdjson(Cursor<User> users, OutputStream out) throws IOException {
+        // 默认每写一个对象flush一次，关掉，交给输出缓冲区
+        ObjectWriter writer = objectMapper.writerFor(User.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            for (User user : users) {
+                writer.writeValue(generator, user);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    private void writeCsv(Cursor<User> users, OutputStream out) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.write("id,name,age\n");
+            for (User user : users) {
+                writer.write(String.valueOf(user.getId()));
+                writer.write(',');
+                writer.write(csvField(user.getName()));
+                writer.write(',');
+                writer.write(user.getAge() == null ? "" : user.getAge().toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
     }
 
     public PageResult<User> page(PageParam pageParam) {
-        PaginationContext.setPageHolder(pageParam);
-        ArrayList<User> allPage = testMapper.findAllPage();
-        long total = PaginationContext.getTotalHolder();
-        PaginationContext.clearAll();
-        return new PageResult<User>(total,allPage);
+        // 作用域结束时自动清掉，查询抛异常也不会残留到线程上
+        return PageScope.query(pageParam, testMapper::findAllPage);
     }
 
     public PageResult<User> page2(PageParam pageParam) {
-        PageHelper.startPage(pageParam);
-        Page<User> page = testMapper.findAllPage2();
-        System.out.println(page);
-        PageResult<User> pageResult = new PageResult<>(page.getTotal(),page.getResult());
-        return pageResult;
+        return PageScope.query(pageParam, testMapper::findAllPage2);
+    }
+
+    public PageResult<User> seek(Long lastId, int pageSize, CountMode countMode) {
+        return PageScope.query(new KeysetParam("id", lastId, pageSize, false, countMode), testMapper::findAllPage2);
     }
 }
@@ -0,0 +1,129 @@
+package org.example.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * @author yufengyang
+ * @Package org.example.cache
+ * @date 2025/9/9 20:12
+ * @school hnist
+ */
+public class NearCache<K, V> {
+    private final LruCache<K, V> cache;
+    // 正在加载的key，同一个key并发未命中时只有第一个线程查库，其余的等它的结果
+    private final ConcurrentMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    // 每次失效加一，加载期间发生过失效的结果不留在缓存里
+    private final AtomicLong version = new AtomicLong();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public NearCache(int maxSize, long ttlMillis) {
+        this.cache = new LruCache<>(maxSize, ttlMillis);
+    }
+
+    /**
+     * 先查缓存，未命中时用loader加载；loader返回null时不缓存
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = cache.get(key);
+        if (value != null) {
+            return value;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalesced.increment();
+            return join(inFlight);
+        }
+        long start = version.get();
+        try {
+            loads.increment();
+            V loaded = loader.apply(key);
+            if (loaded != null) {
+                cache.put(key, loaded);
+                // 先放再检查：失效是先加版本再删，两边怎么交错都不会留下旧值
+                if (version.get() != start) {
+                    cache.remove(key);
+                }
+            }
+            future.complete(loaded);
+            return loaded;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    // 写操作之后调用，之后的get一定会重新加载
+    public void invalidate(K key) {
+        version.incrementAndGet();
+        loading.remove(key);
+        cache.remove(key);
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        loading.clear();
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    // 实际查库的次数
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    // 合并到别的线程加载结果上的未命中次数
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public double hitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NearCache{" + cache + ", loads=" + getLoads() + ", coalesced=" + getCoalesced() + "}";
+    }
+}
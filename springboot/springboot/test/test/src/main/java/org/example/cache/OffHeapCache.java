@@ -0,0 +1,375 @@
+package org.example.cache;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 二级缓存放在堆外：查询结果序列化后写进direct ByteBuffer，堆上只留key和位置
+ * 用法：mapper xml里加 <cache type="org.example.cache.OffHeapCache"/>，可以用property设置maxBytes、segments、ttlMillis
+ * 自定义的cache类型mybatis不会套ScheduledCache，flushInterval不起作用，过期要用ttlMillis
+ *
+ * @author yufengyang
+ * @Package org.example.cache
+ * @date 2025/9/11 21:08
+ * @school hnist
+ */
+public class OffHeapCache implements Cache, InitializingObject {
+    private final String id;
+    private long maxBytes = 64L * 1024 * 1024;
+    private int segments = 16;
+    // <=0表示不过期，只靠写操作清空和容量淘汰
+    private long ttlMillis;
+    private volatile Segment[] table;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // mybatis通过这个构造方法创建，参数是namespace
+    public OffHeapCache(String id) {
+        this.id = id;
+    }
+
+    // 所有property设置完之后由mybatis调用
+    @Override
+    public void initialize() {
+        if (maxBytes <= 0 || segments <= 0) {
+            throw new CacheException("OffHeapCache的maxBytes和segments必须大于0");
+        }
+        // 段数取2的幂，按hash低位选段
+        int n = Integer.highestOneBit(segments);
+        long perSegment = maxBytes / n;
+        if (perSegment > Integer.MAX_VALUE) {
+            throw new CacheException("OffHeapCache单段超过2G，调大segments: " + maxBytes);
+        }
+        Segment[] table = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            table[i] = new Segment((int) perSegment);
+        }
+        this.table = table;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        if (value == null) {
+            // TransactionalCache会对未命中的key放null，和没有缓存一样
+            segmentFor(key).remove(key);
+            return;
+        }
+        segmentFor(key).put(key, serialize(value), ttlMillis > 0 ? System.nanoTime() + ttlMillis * 1_000_000L : 0L);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        byte[] data = segmentFor(key).get(key);
+        if (data == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return deserialize(data);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        segmentFor(key).remove(key);
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments()) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments()) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // 当前存着的序列化字节数
+    public long getUsedBytes() {
+        long used = 0;
+        for (Segment segment : segments()) {
+            used += segment.usedBytes();
+        }
+        return used;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        long evictions = 0;
+        for (Segment segment : segments()) {
+            evictions += segment.evictions.sum();
+        }
+        return evictions;
+    }
+
+    private Segment[] segments() {
+        Segment[] table = this.table;
+        if (table == null) {
+            // 不是mybatis创建的（比如直接new出来）时按默认配置初始化
+            synchronized (this) {
+                if (this.table == null) {
+                    initialize();
+                }
+                table = this.table;
+            }
+        }
+        return table;
+    }
+
+    private Segment segmentFor(Object key) {
+        Segment[] table = segments();
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return table[h & (table.length - 1)];
+    }
+
+    private static byte[] serialize(Object value) {
+        if (!(value instanceof Serializable)) {
+            throw new CacheException("OffHeapCache只能缓存可序列化的结果: " + value.getClass().getName());
+        }
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(); ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+            oos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new CacheException("序列化缓存结果失败", e);
+        }
+    }
+
+    private static Object deserialize(byte[] data) {
+        try (ObjectInputStream ois = new ResourcesObjectInputStream(new ByteArrayInputStream(data))) {
+            return ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new CacheException("反序列化缓存结果失败", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof Cache cache && id.equals(cache.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    // 和SerializedCache一样按mybatis的类加载器找类
+    private static class ResourcesObjectInputStream extends ObjectInputStream {
+        ResourcesObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws ClassNotFoundException {
+            return Resources.classForName(desc.getName());
+        }
+    }
+
+    /**
+     * 每段一块direct buffer，顺序追加写；空间不够时按LRU淘汰，再把剩下的数据挪到前面整理碎片
+     */
+    private static class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ByteBuffer buffer;
+        // accessOrder=true，最前面的是最久没访问的
+        private final LinkedHashMap<Object, Slot> index = new LinkedHashMap<>(16, 0.75f, true);
+        private int top;
+        private long live;
+        private final LongAdder evictions = new LongAdder();
+
+        Segment(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        byte[] get(Object key) {
+            lock.lock();
+            try {
+                Slot slot = index.get(key);
+                if (slot == null) {
+                    return null;
+                }
+                if (slot.expireAt != 0L && System.nanoTime() - slot.expireAt >= 0) {
+                    removeLocked(key);
+                    return null;
+                }
+                byte[] data = new byte[slot.length];
+                buffer.get(slot.offset, data);
+                return data;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // expireAt为0表示不过期
+        void put(Object key, byte[] data, long expireAt) {
+            lock.lock();
+            try {
+                removeLocked(key);
+                int capacity = buffer.capacity();
+                if (data.length > capacity) {
+                    // 比一整段还大的结果不缓存
+                    return;
+                }
+                if (capacity - top < data.length) {
+                    Iterator<Slot> it = index.values().iterator();
+                    while (capacity - live < data.length && it.hasNext()) {
+                        live -= it.next().length;
+                        it.remove();
+                        evictions.increment();
+                    }
+                    compact();
+                }
+                buffer.put(top, data);
+                index.put(key, new Slot(top, data.length, expireAt));
+                top += data.length;
+                live += data.length;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(Object key) {
+            lock.lock();
+            try {
+                removeLocked(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                index.clear();
+                top = 0;
+                live = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return index.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long usedBytes() {
+            lock.lock();
+            try {
+                return live;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void removeLocked(Object key) {
+            Slot slot = index.remove(key);
+            if (slot != null) {
+                live -= slot.length;
+                if (slot.offset + slot.length == top) {
+                    // 刚好是最后写的那条，直接回退
+                    top = slot.offset;
+                }
+            }
+        }
+
+        // 按offset从小到大把存活的数据往前挪，目标位置总在源位置前面，不会覆盖还没挪的数据
+        private void compact() {
+            List<Slot> slots = new ArrayList<>(index.values());
+            slots.sort((a, b) -> Integer.compare(a.offset, b.offset));
+            int position = 0;
+            for (Slot slot : slots) {
+                if (slot.offset != position) {
+                    move(slot.offset, position, slot.length);
+                    slot.offset = position;
+                }
+                position += slot.length;
+            }
+            top = position;
+        }
+
+        private void move(int from, int to, int length) {
+            byte[] chunk = new byte[Math.min(length, 8192)];
+            while (length > 0) {
+                int n = Math.min(chunk.length, length);
+                buffer.get(from, chunk, 0, n);
+                buffer.put(to, chunk, 0, n);
+                from += n;
+                to += n;
+                length -= n;
+            }
+        }
+    }
+
+    private static class Slot {
+        private int offset;
+        private final int length;
+        private final long expireAt;
+
+        Slot(int offset, int length, long expireAt) {
+            this.offset = offset;
+            this.length = length;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.cache;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分页接口的响应体缓存：每张表（按mapper namespace）一个版本号，写操作之后加一
+ * 同一个版本下同样参数的响应字节完全一样，ETag直接由版本号生成，If-None-Match对得上时不用查库
+ * 版本号只跟着经过本应用的写变，别的客户端直接写库时靠ttl兜底：配了ttl时ETag和缓存的响应体按ttl分段，每段换一次
+ *
+ * @author yufengyang
+ * @Package org.example.cache
+ * @date 2025/9/22 15:06
+ * @school hnist
+ */
+public class PageBodyCache {
+    // 进程启动时刻，重启后版本号又从0开始，ETag里带上它才不会和重启前发出去的撞上
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final LruCache<BodyKey, byte[]> bodies;
+    private final long ttlMillis;
+
+    /**
+     * @param maxSize 最多缓存的响应体个数
+     * @param ttlMillis 过期时间，<=0 表示只靠版本号失效
+     */
+    public PageBodyCache(int maxSize, long ttlMillis) {
+        this.bodies = new LruCache<>(maxSize, ttlMillis);
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long version(String table) {
+        AtomicLong version = versions.get(table);
+        return version == null ? 0L : version.get();
+    }
+
+    /**
+     * 强ETag，同一个URL在同一个版本（配了ttl时还要在同一个时间段）下响应不变
+     * @param variant 同一个URL的不同表示（比如按Accept协商出的格式），为null表示默认表示
+     */
+    public String etag(String table, long version, String variant) {
+        String segment = ttlMillis > 0 ? "." + Long.toString(segment(), 36) : "";
+        return "\"" + epoch + "-" + version + segment + (variant == null ? "" : "-" + variant) + "\"";
+    }
+
+    // 第几个ttl时间段，没配ttl时一直是0
+    private long segment() {
+        return ttlMillis > 0 ? System.currentTimeMillis() / ttlMillis : 0L;
+    }
+
+    // 写操作之后调用，旧版本的响应体一起清掉
+    public void bump(String table) {
+        versions.computeIfAbsent(table, t -> new AtomicLong()).incrementAndGet();
+        bodies.removeIf(key -> key.table().equals(table));
+    }
+
+    /**
+     * 取version版本下key对应的响应体，没有时用loader生成
+     * 生成期间表被写过的结果照样返回给这次请求，但不放进缓存
+     */
+    public byte[] get(String table, long version, String key, BodyLoader loader) throws IOException {
+        BodyKey bodyKey = new BodyKey(table, version, segment(), key);
+        byte[] body = bodies.get(bodyKey);
+        if (body != null) {
+            return body;
+        }
+        body = loader.load();
+        if (version(table) == version) {
+            bodies.put(bodyKey, body);
+            // 先放再检查：bump是先加版本再清，两边怎么交错都不会留下旧版本的响应
+            if (version(table) != version) {
+                bodies.remove(bodyKey);
+            }
+        }
+        return body;
+    }
+
+    public int size() {
+        return bodies.size();
+    }
+
+    public long getHits() {
+        return bodies.getHits();
+    }
+
+    public long getMisses() {
+        return bodies.getMisses();
+    }
+
+    @FunctionalInterface
+    public interface BodyLoader {
+        byte[] load() throws IOException;
+    }
+
+    private record BodyKey(String table, long version, long segment, String key) {
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.codec;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.entity.User;
+import org.example.plugin.PageResult;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * PageResult&lt;User&gt;的列式JSON：字段名只在cols里出现一次，每个user是rows里的一个数组
+ * {"total":31,"exact":true,"hasNext":true,"nextCursor":null,"cols":["id","name","age"],"rows":[[1,"u1",18],...]}
+ * 手写的流式输出，不走反射和BeanSerializer
+ *
+ * @author yufengyang
+ * @Package org.example.codec
+ * @date 2025/9/22 19:40
+ * @school hnist
+ */
+@Component
+public class ColumnarPageWriter {
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType("application/vnd.page.columnar+json");
+
+    // 字段名预先编码好，写的时候直接拷字节
+    private static final SerializableString TOTAL = new SerializedString("total");
+    private static final SerializableString EXACT = new SerializedString("exact");
+    private static final SerializableString HAS_NEXT = new SerializedString("hasNext");
+    private static final SerializableString NEXT_CURSOR = new SerializedString("nextCursor");
+    private static final SerializableString COLS = new SerializedString("cols");
+    private static final SerializableString ROWS = new SerializedString("rows");
+    private static final String[] USER_COLS = {"id", "name", "age"};
+
+    private final JsonFactory factory;
+
+    // 用Spring的ObjectMapper的factory，nextCursor之类的非数字值交给它序列化
+    public ColumnarPageWriter(ObjectMapper objectMapper) {
+        this.factory = objectMapper.getFactory();
+    }
+
+    public void write(PageResult<User> page, OutputStream out) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeFieldName(TOTAL);
+            generator.writeNumber(page.getTotal());
+            generator.writeFieldName(EXACT);
+            generator.writeBoolean(page.isExact());
+            generator.writeFieldName(HAS_NEXT);
+            generator.writeBoolean(page.isHasNext());
+            generator.writeFieldName(NEXT_CURSOR);
+            writeCursor(generator, page.getNextCursor());
+            generator.writeFieldName(COLS);
+            generator.writeArray(USER_COLS, 0, USER_COLS.length);
+            generator.writeFieldName(ROWS);
+            List<User> users = page.getData();
+            generator.writeStartArray(users, users.size());
+            for (User user : users) {
+                generator.writeStartArray(user, 3);
+                if (user.getId() == null) {
+                    generator.writeNull();
+                } else {
+                    generator.writeNumber(user.getId());
+                }
+                generator.writeString(user.getName());
+                if (user.getAge() == null) {
+                    generator.writeNull();
+                } else {
+                    generator.writeNumber(user.getAge());
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    public byte[] toBytes(PageResult<User> page) throws IOException {
+        // 每行大约三十个字节
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128 + page.getData().size() * 32);
+        write(page, out);
+        return out.toByteArray();
+    }
+
+    private static void writeCursor(JsonGenerator generator, Object cursor) throws IOException {
+        if (cursor == null) {
+            generator.writeNull();
+        } else if (cursor instanceof Long value) {
+            generator.writeNumber(value);
+        } else if (cursor instanceof Integer value) {
+            generator.writeNumber(value);
+        } else if (cursor instanceof String value) {
+            generator.writeString(value);
+        } else {
+            generator.writeObject(cursor);
+        }
+    }
+}
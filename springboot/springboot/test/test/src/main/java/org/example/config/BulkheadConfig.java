@@ -0,0 +1,84 @@
+package org.example.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.example.datasource.BulkheadDataSource;
+import org.example.datasource.ReadWriteRoutingDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * @author yufengyang
+ * @Package org.example.config
+ * @date 2025/9/18 15:52
+ * @school hnist
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "jdbc.bulkhead", name = "enabled", havingValue = "true")
+public class BulkheadConfig {
+    // 把数据源包一层BulkheadDataSource，mybatis、事务管理器、count/预取线程拿到的都是包过的
+    @Bean
+    public static BeanPostProcessor bulkheadDataSourcePostProcessor(@Value("${jdbc.bulkhead.max-concurrent:0}") int maxConcurrent,
+                                                                    @Value("${jdbc.bulkhead.acquire-timeout-millis:3000}") long acquireTimeoutMillis){
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if(!(bean instanceof DataSource dataSource) || bean instanceof BulkheadDataSource){
+                    return bean;
+                }
+                // 0表示和连接池的最大连接数一样
+                int permits = maxConcurrent > 0 ? maxConcurrent : maximumPoolSize(dataSource);
+                return new BulkheadDataSource(dataSource, permits, acquireTimeoutMillis);
+            }
+        };
+    }
+
+    // 读写分离时是主库和所有副本连接池的总和
+    private static int maximumPoolSize(DataSource dataSource){
+        if(dataSource instanceof HikariDataSource hikari){
+            // 没配maximum-pool-size时连接池启动前是-1，启动时才换成默认的10
+            return hikari.getMaximumPoolSize() > 0 ? hikari.getMaximumPoolSize() : 10;
+        }
+        if(dataSource instanceof ReadWriteRoutingDataSource routing){
+            int total = 0;
+            for (DataSource target : routing.getTargets()) {
+                total += maximumPoolSize(target);
+            }
+            return total;
+        }
+        return 10;
+    }
+
+    // 许可剩余、排队数和超时次数，见 /actuator/metrics/jdbc.bulkhead.*
+    @Bean
+    public MeterBinder bulkheadMetrics(DataSource dataSource){
+        return registry -> {
+            BulkheadDataSource bulkhead;
+            try {
+                if(!dataSource.isWrapperFor(BulkheadDataSource.class)){
+                    return;
+                }
+                bulkhead = dataSource.unwrap(BulkheadDataSource.class);
+            } catch (SQLException e) {
+                return;
+            }
+            Gauge.builder("jdbc.bulkhead.available", bulkhead, BulkheadDataSource::getAvailablePermits)
+                    .description("剩余的数据库许可数")
+                    .register(registry);
+            Gauge.builder("jdbc.bulkhead.queued", bulkhead, BulkheadDataSource::getQueueLength)
+                    .description("等待数据库许可的线程数")
+                    .register(registry);
+            FunctionCounter.builder("jdbc.bulkhead.rejected", bulkhead, BulkheadDataSource::getRejected)
+                    .description("等待许可超时的次数")
+                    .register(registry);
+        };
+    }
+}
@@ -1,10 +1,32 @@
 package org.example.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.ibatis.plugin.Interceptor;
-import org.example.plugin.Paginationincepter;
+import org.example.cache.PageBodyCache;
+import org.example.datasource.BulkheadDataSource;
+import org.example.datasource.ReadWriteRoutingDataSource;
+import org.example.entity.User;
+import org.example.mapping.CompiledResultSetInterceptor;
+import org.example.plugin.CountCache;
+import org.example.plugin.LruCountCache;
+import org.example.plugin.PaginationMetrics;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin.SlowQueryRecorder;
 import org.example.plugin2.Paginationincepter2;
+import org.example.shard.ShardRouter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.function.BooleanSupplier;
 
 /**
  * @author yufengyang
@@ -14,10 +36,124 @@ import org.springframework.context.annotation.Configuration;
  */
 @Configuration
 public class MybatisConfig {
+    // 两个分页插件共用一个count缓存，写操作时按namespace失效
     @Bean
-    public Interceptor paginationInterceptor(){
-        return new Paginationincepter();
+    public CountCache countCache(@Value("${pagination.count-cache.max-size:1024}") int maxSize,
+                                 @Value("${pagination.count-cache.ttl-millis:30000}") long ttlMillis){
+        return new LruCountCache(maxSize, ttlMillis);
+    }
+    // 慢查询放进环形缓冲区，最慢的几条自动EXPLAIN，见 /slow-queries
+    @Bean(destroyMethod = "shutdown")
+    public SlowQueryRecorder slowQueryRecorder(@Value("${pagination.slow-query.threshold-millis:200}") long thresholdMillis,
+                                               @Value("${pagination.slow-query.capacity:256}") int capacity,
+                                               @Value("${pagination.slow-query.explain-top:10}") int explainTop){
+        return new SlowQueryRecorder(thresholdMillis, capacity, explainTop);
+    }
+    // 分页接口的响应体缓存，版本号由下面的写操作回调加一，ETag见Controller
+    @Bean
+    public PageBodyCache pageBodyCache(@Value("${users.page-cache.max-size:512}") int maxSize,
+                                       @Value("${users.page-cache.ttl-millis:10000}") long ttlMillis){
+        return new PageBodyCache(maxSize, ttlMillis);
+    }
+    @Bean(destroyMethod = "shutdown")
+    public PaginationSupport paginationSupport(CountCache countCache,
+                                               PageBodyCache pageBodyCache,
+                                               SlowQueryRecorder slowQueryRecorder,
+                                               ObjectProvider<MeterRegistry> meterRegistry,
+                                               @Value("${pagination.parallel-count.enabled:false}") boolean parallelCount,
+                                               @Value("${pagination.parallel-count.threads:4}") int threads,
+                                               @Value("${pagination.parallel-count.timeout-millis:2000}") long timeoutMillis,
+                                               @Value("${pagination.single-flight.wait-millis:0}") long singleFlightWaitMillis,
+                                               @Value("${pagination.deferred-join.min-offset:0}") int deferredJoinMinOffset,
+                                               ObjectProvider<DataSource> dataSource,
+                                               @Value("${pagination.prefetch.enabled:false}") boolean prefetch,
+                                               @Value("${pagination.prefetch.threads:2}") int prefetchThreads,
+                                               @Value("${pagination.prefetch.cache-size:256}") int prefetchCacheSize,
+                                               @Value("${pagination.prefetch.ttl-millis:5000}") long prefetchTtlMillis,
+                                               @Value("${pagination.prefetch.min-idle:2}") int prefetchMinIdle,
+                                               ObjectProvider<ShardRouter> shardRouter,
+                                               @Value("${jdbc.read-write.enabled:false}") boolean readWrite){
+        PaginationSupport support = new PaginationSupport(countCache);
+        support.setSlowQueryRecorder(slowQueryRecorder);
+        support.setUpdateListener(namespace -> {
+            pageBodyCache.bump(namespace);
+            if(TransactionSynchronizationManager.isSynchronizationActive()){
+                // 提交之前别的请求可能按新版本号读到了旧数据、重新缓存了旧的count和预取页，事务结束后再清一次
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        support.invalidate(namespace);
+                        pageBodyCache.bump(namespace);
+                    }
+                });
+            }
+        });
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if(registry != null){
+            // count/分页查询耗时、offset深度、每页行数、count缓存命中，见 /actuator/metrics/pagination.*
+            support.setMetrics(new PaginationMetrics(registry));
+        }
+        if(parallelCount){
+            support.enableParallelCount(threads, timeoutMillis);
+        }
+        if(singleFlightWaitMillis > 0){
+            support.enableSingleFlight(singleFlightWaitMillis);
+        }
+        if(deferredJoinMinOffset > 0){
+            support.enableDeferredJoin(deferredJoinMinOffset);
+        }
+        ShardRouter router = shardRouter.getIfAvailable();
+        if(router != null){
+            // 打开users.shards之后分页查询向各分片取数归并
+            support.enableSharding(router);
+        }
+        if(readWrite){
+            // 并行count和预取在线程池里拿连接，带上请求线程的读标记才会去副本
+            support.setTaskDecorator(ReadWriteRoutingDataSource::propagate);
+        }
+        if(prefetch){
+            support.enablePrefetch(prefetchThreads, prefetchCacheSize, prefetchTtlMillis, poolBusy(dataSource.getIfAvailable(), prefetchMinIdle));
+        }
+        return support;
     }
+
+    // 有线程在等连接或等bulkhead许可，或者空闲连接不超过minIdle时不预取，预取不能和正常请求抢连接
+    private BooleanSupplier poolBusy(DataSource dataSource, int minIdle){
+        HikariDataSource hikari = null;
+        BulkheadDataSource bulkhead = null;
+        try {
+            if(dataSource != null && dataSource.isWrapperFor(HikariDataSource.class)){
+                hikari = dataSource.unwrap(HikariDataSource.class);
+            }
+            if(dataSource != null && dataSource.isWrapperFor(BulkheadDataSource.class)){
+                bulkhead = dataSource.unwrap(BulkheadDataSource.class);
+            }
+        } catch (SQLException ignored) {
+        }
+        if(bulkhead != null){
+            BooleanSupplier busy = poolBusy(hikari, minIdle);
+            BulkheadDataSource queue = bulkhead;
+            return () -> queue.hasQueuedThreads() || busy.getAsBoolean();
+        }
+        return poolBusy(hikari, minIdle);
+    }
+
+    private BooleanSupplier poolBusy(HikariDataSource hikari, int minIdle){
+        if(hikari == null){
+            // 看不到连接池状态就只靠预取线程数限流
+            return () -> false;
+        }
+        HikariDataSource pool = hikari;
+        return () -> {
+            HikariPoolMXBean mxBean = pool.getHikariPoolMXBean();
+            return mxBean == null || mxBean.getThreadsAwaitingConnection() > 0 || mxBean.getIdleConnections() <= minIdle;
+        };
+    }
+    // 两个插件共用PageScope，只注册一个；Paginationincepter返回普通List，需要时换成它
+    @Bean
+    public Interceptor paginationInterceptor2(PaginationSupport paginationSupport){return new Paginationincepter2(paginationSupport); }
+    // resultType=user的简单查询用编译好的行映射代替MyBatis的反射映射
     @Bean
-    public Interceptor paginationInterceptor2(){return new Paginationincepter2(); }
+    @ConditionalOnProperty(prefix = "users.compiled-mapping", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public Interceptor compiledResultSetInterceptor(){return new CompiledResultSetInterceptor(User.class); }
 }
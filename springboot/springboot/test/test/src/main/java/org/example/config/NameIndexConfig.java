@@ -0,0 +1,29 @@
+package org.example.config;
+
+import org.example.TestService;
+import org.example.search.TrigramIndex;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author yufengyang
+ * @Package org.example.config
+ * @date 2025/9/7 17:05
+ * @school hnist
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "users.name-index", name = "enabled", havingValue = "true")
+public class NameIndexConfig {
+    // t_user.name的三元组索引，/users/find?status=1 先查它再按主键取行
+    @Bean
+    public TrigramIndex nameIndex(){
+        return new TrigramIndex();
+    }
+    // 启动时全量加载，加载完之前的查询走数据库LIKE
+    @Bean
+    public ApplicationRunner nameIndexLoader(TrigramIndex nameIndex, TestService testService){
+        return args -> testService.loadNameIndex(nameIndex);
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.example.datasource.ReadWriteRoutingDataSource;
+import org.example.datasource.ReadWriteRoutingInterceptor;
+import org.example.datasource.ReadYourWritesFilter;
+import org.mybatis.spring.boot.autoconfigure.SqlSessionFactoryBeanCustomizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author yufengyang
+ * @Package org.example.config
+ * @date 2025/9/22 11:20
+ * @school hnist
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "jdbc.read-write", name = "enabled", havingValue = "true")
+public class ReadWriteConfig {
+    // 主库用spring.datasource，副本用同样的用户名密码；替掉自动配置的数据源，bulkhead包的是这一个
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties,
+                                 @Value("${jdbc.read-write.replica-urls}") String[] replicaUrls,
+                                 @Value("${jdbc.read-write.pool-size:10}") int poolSize,
+                                 @Value("${jdbc.read-write.connection-timeout-millis:1000}") long connectionTimeoutMillis){
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+        List<DataSource> replicas = new ArrayList<>(replicaUrls.length);
+        for (int i = 0; i < replicaUrls.length; i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + i);
+            replica.setJdbcUrl(replicaUrls[i].trim());
+            replica.setUsername(properties.determineUsername());
+            replica.setPassword(properties.determinePassword());
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setMaximumPoolSize(poolSize);
+            // 副本拿不到连接时尽快退回主库
+            replica.setConnectionTimeout(connectionTimeoutMillis);
+            replicas.add(replica);
+        }
+        return new ReadWriteRoutingDataSource(primary, replicas);
+    }
+
+    // 自动配置设好plugins之后再加，排在最后才是最外层，分页插件拿连接时读写标记已经设好
+    @Bean
+    public SqlSessionFactoryBeanCustomizer readWriteRoutingCustomizer(@Value("${jdbc.read-write.sticky-millis:1000}") long stickyMillis){
+        return factoryBean -> factoryBean.addPlugins(new ReadWriteRoutingInterceptor(stickyMillis));
+    }
+
+    // 调用方最后一次写的时间放在cookie里，只有它自己的读在sticky-millis内粘主库
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter(@Value("${jdbc.read-write.sticky-millis:1000}") long stickyMillis){
+        return new ReadYourWritesFilter(stickyMillis);
+    }
+
+    // 主库/副本各发出多少连接，副本失败退回主库的次数，见 /actuator/metrics/jdbc.routing.*
+    @Bean
+    public MeterBinder readWriteRoutingMetrics(DataSource dataSource){
+        return registry -> {
+            ReadWriteRoutingDataSource routing;
+            try {
+                if(!dataSource.isWrapperFor(ReadWriteRoutingDataSource.class)){
+                    return;
+                }
+                routing = dataSource.unwrap(ReadWriteRoutingDataSource.class);
+            } catch (SQLException e) {
+                return;
+            }
+            FunctionCounter.builder("jdbc.routing.connections", routing, ReadWriteRoutingDataSource::getPrimaryConnections)
+                    .tag("target", "primary")
+                    .description("从主库拿的连接数")
+                    .register(registry);
+            FunctionCounter.builder("jdbc.routing.connections", routing, ReadWriteRoutingDataSource::getReplicaConnections)
+                    .tag("target", "replica")
+                    .description("从副本拿的连接数")
+                    .register(registry);
+            FunctionCounter.builder("jdbc.routing.fallbacks", routing, ReadWriteRoutingDataSource::getFallbacks)
+                    .description("副本拿不到连接退回主库的次数")
+                    .register(registry);
+        };
+    }
+}
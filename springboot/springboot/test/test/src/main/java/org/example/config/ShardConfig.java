@@ -0,0 +1,62 @@
+package org.example.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.ibatis.plugin.Interceptor;
+import org.example.datasource.BulkheadDataSource;
+import org.example.plugin.PaginationSupport;
+import org.example.shard.ShardKeyExtractor;
+import org.example.shard.ShardRouter;
+import org.example.shard.ShardRoutingInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author yufengyang
+ * @Package org.example.config
+ * @date 2025/9/21 19:30
+ * @school hnist
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "users.shards", name = "enabled", havingValue = "true")
+public class ShardConfig {
+    // 每个分片一个连接池，用户名密码和驱动跟spring.datasource一样
+    // 分片的连接池不是bean，BulkheadConfig的BeanPostProcessor包不到，开了bulkhead时在这里按同样的配置包上
+    @Bean(destroyMethod = "shutdown")
+    public ShardRouter shardRouter(@Value("${users.shards.urls}") String[] urls,
+                                   @Value("${users.shards.pool-size:10}") int poolSize,
+                                   @Value("${users.shards.threads:0}") int threads,
+                                   @Value("${spring.datasource.username}") String username,
+                                   @Value("${spring.datasource.password}") String password,
+                                   @Value("${spring.datasource.driver-class-name}") String driverClassName,
+                                   @Value("${jdbc.bulkhead.enabled:false}") boolean bulkhead,
+                                   @Value("${jdbc.bulkhead.max-concurrent:0}") int maxConcurrent,
+                                   @Value("${jdbc.bulkhead.acquire-timeout-millis:3000}") long acquireTimeoutMillis){
+        List<DataSource> shards = new ArrayList<>(urls.length);
+        for (int i = 0; i < urls.length; i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("shard-" + i);
+            dataSource.setJdbcUrl(urls[i].trim());
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            dataSource.setDriverClassName(driverClassName);
+            dataSource.setMaximumPoolSize(poolSize);
+            // 0表示和这个分片连接池的最大连接数一样
+            shards.add(bulkhead ? new BulkheadDataSource(dataSource, maxConcurrent > 0 ? maxConcurrent : poolSize, acquireTimeoutMillis) : dataSource);
+        }
+        // 默认每个分片两个线程，count和分页查询可以同时在多个请求间并行
+        return new ShardRouter(shards, threads > 0 ? threads : urls.length * 2);
+    }
+
+    // 不分页的语句按分片键路由，分页查询由Paginationincepter2归并
+    @Bean
+    public Interceptor shardRoutingInterceptor(ShardRouter shardRouter, PaginationSupport paginationSupport,
+                                               @Value("${users.shards.key-column:id}") String keyColumn){
+        return new ShardRoutingInterceptor(shardRouter, new ShardKeyExtractor(keyColumn), paginationSupport);
+    }
+}
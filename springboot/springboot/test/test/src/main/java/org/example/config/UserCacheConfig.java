@@ -0,0 +1,54 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.cache.NearCache;
+import org.example.entity.User;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * @author yufengyang
+ * @Package org.example.config
+ * @date 2025/9/9 20:40
+ * @school hnist
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "users.near-cache", name = "enabled", havingValue = "true")
+public class UserCacheConfig {
+    // findByid前面的本地缓存，写操作按id失效，命中率等指标见 /actuator/metrics/users.cache.*
+    @Bean
+    public NearCache<Long, List<User>> userCache(@Value("${users.near-cache.max-size:10000}") int maxSize,
+                                                 @Value("${users.near-cache.ttl-millis:60000}") long ttlMillis,
+                                                 ObjectProvider<MeterRegistry> meterRegistry){
+        NearCache<Long, List<User>> cache = new NearCache<>(maxSize, ttlMillis);
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if(registry != null){
+            FunctionCounter.builder("users.cache.gets", cache, NearCache::getHits)
+                    .description("按id查用户的缓存命中次数")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("users.cache.gets", cache, NearCache::getMisses)
+                    .description("按id查用户的缓存未命中次数")
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("users.cache.evictions", cache, NearCache::getEvictions)
+                    .description("超过容量被淘汰的条数")
+                    .register(registry);
+            FunctionCounter.builder("users.cache.loads", cache, NearCache::getLoads)
+                    .description("实际查库次数，并发未命中合并后只算一次")
+                    .register(registry);
+            Gauge.builder("users.cache.hit.ratio", cache, NearCache::hitRatio)
+                    .register(registry);
+            Gauge.builder("users.cache.size", cache, NearCache::size)
+                    .register(registry);
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,165 @@
+package org.example.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 读写分离：当前线程标记为读、又不在事务里时，连接从只读副本里轮流取，其它情况都走主库
+ * 标记由ReadWriteRoutingInterceptor在select前后设置；连接在拿到时就定下了库，
+ * 所以手动打开的SqlSession会一直用第一条语句选中的库
+ * 副本连接设成readOnly，误在副本连接上写会直接报错；副本拿不到连接时退回主库
+ *
+ * @author yufengyang
+ * @Package org.example.datasource
+ * @date 2025/9/22 10:15
+ * @school hnist
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    private static final String PRIMARY = "primary";
+    private static final ThreadLocal<Boolean> READ = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    // 读请求轮流分到各个副本
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder primaryConnections = new LongAdder();
+    private final LongAdder replicaConnections = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < this.replicas.size(); i++) {
+            targets.put(i, this.replicas.get(i));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    /**
+     * 标记当前线程接下来拿的连接是不是只读的
+     * @return 之前的标记，用完交给restore恢复
+     */
+    public static Boolean markRead(boolean read) {
+        Boolean previous = READ.get();
+        READ.set(read);
+        return previous;
+    }
+
+    public static void restore(Boolean previous) {
+        if (previous == null) {
+            READ.remove();
+        } else {
+            READ.set(previous);
+        }
+    }
+
+    /**
+     * 把提交时线程上的读写标记带到线程池里执行，执行完恢复，count和预取线程用
+     */
+    public static Runnable propagate(Runnable task) {
+        Boolean read = READ.get();
+        return () -> {
+            Boolean previous = READ.get();
+            restore(read);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        // 事务里的连接要能看到本事务写的数据，一律走主库
+        if (replicas.isEmpty() || !Boolean.TRUE.equals(READ.get())
+                || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return PRIMARY;
+        }
+        return Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Object key = determineCurrentLookupKey();
+        if (key instanceof Integer replica) {
+            try {
+                Connection connection = replicas.get(replica).getConnection();
+                try {
+                    connection.setReadOnly(true);
+                } catch (SQLException e) {
+                    connection.close();
+                    throw e;
+                }
+                replicaConnections.increment();
+                return connection;
+            } catch (SQLException e) {
+                // 副本挂了或者连接池满了，读请求退回主库
+                fallbacks.increment();
+            }
+        }
+        primaryConnections.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        primaryConnections.increment();
+        return primary.getConnection(username, password);
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public List<DataSource> getReplicas() {
+        return replicas;
+    }
+
+    // 主库和所有副本
+    public List<DataSource> getTargets() {
+        List<DataSource> targets = new ArrayList<>(replicas.size() + 1);
+        targets.add(primary);
+        targets.addAll(replicas);
+        return targets;
+    }
+
+    public long getPrimaryConnections() {
+        return primaryConnections.sum();
+    }
+
+    public long getReplicaConnections() {
+        return replicaConnections.sum();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    public void close() {
+        for (DataSource target : getTargets()) {
+            if (target instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception ignored) {
+                    // 关闭时的异常不影响其它库
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.datasource;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * select执行期间把当前线程标记为读，连接从副本取；insert/update/delete走主库
+ * 要包在所有插件最外层，分页插件的count和分页查询拿连接时标记已经设好
+ * 读己之写按调用方区分：当前线程的ReadYourWritesScope在stickyMillis内写过，它的读也走主库，避免刚写完就从落后的副本上读不到；
+ * 别的调用方不受影响，没有作用域的读照样走副本
+ *
+ * @author yufengyang
+ * @Package org.example.datasource
+ * @date 2025/9/22 10:48
+ * @school hnist
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor", args = {MappedStatement.class, Object.class, RowBounds.class}),
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
+})
+public class ReadWriteRoutingInterceptor implements Interceptor {
+    private final long stickyMillis;
+
+    /**
+     * @param stickyMillis 调用方写完之后这么久内它自己的读走主库，0表示不粘主库
+     */
+    public ReadWriteRoutingInterceptor(long stickyMillis) {
+        this.stickyMillis = stickyMillis;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        boolean write = "update".equals(invocation.getMethod().getName()) || ms.getSqlCommandType() != SqlCommandType.SELECT;
+        ReadYourWritesScope scope = ReadYourWritesScope.current();
+        Boolean previous = ReadWriteRoutingDataSource.markRead(!write && !sticky(scope));
+        try {
+            return invocation.proceed();
+        } finally {
+            ReadWriteRoutingDataSource.restore(previous);
+            if (write && scope != null && stickyMillis > 0) {
+                scope.written(System.currentTimeMillis());
+            }
+        }
+    }
+
+    private boolean sticky(ReadYourWritesScope scope) {
+        if (stickyMillis <= 0 || scope == null || scope.getLastWriteMillis() <= 0) {
+            return false;
+        }
+        // 时间来自调用方，可能是别的实例写的，两边时钟有偏差时差值也可能是负的
+        return Math.abs(System.currentTimeMillis() - scope.getLastWriteMillis()) < stickyMillis;
+    }
+}
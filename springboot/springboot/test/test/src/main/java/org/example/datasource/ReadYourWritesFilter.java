@@ -0,0 +1,76 @@
+package org.example.datasource;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * 每个请求开一个ReadYourWritesScope，调用方最后一次写的时间放在cookie里来回带
+ * 写过的客户端在stickyMillis内的读走主库，别的客户端不受影响，照样读副本
+ *
+ * @author yufengyang
+ * @Package org.example.datasource
+ * @date 2025/9/23 17:35
+ * @school hnist
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+    public static final String COOKIE = "rw_last_write";
+
+    private final long stickyMillis;
+
+    public ReadYourWritesFilter(long stickyMillis) {
+        this.stickyMillis = stickyMillis;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // 写的时候就发cookie，响应提交之后就加不上了；批量导入这种一直在写的请求隔半个stickyMillis补发一次，
+        // 浏览器以最后一个为准，提交前发出的时间离最后一次写不超过半个窗口
+        long[] sent = {0};
+        try (ReadYourWritesScope scope = ReadYourWritesScope.start(lastWriteOf(request), written -> {
+            if (written - sent[0] >= stickyMillis / 2 && setCookie(response, written)) {
+                sent[0] = written;
+            }
+        })) {
+            chain.doFilter(request, response);
+            if (scope.getWrittenMillis() > sent[0]) {
+                setCookie(response, scope.getWrittenMillis());
+            }
+        }
+    }
+
+    private static long lastWriteOf(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return 0;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private boolean setCookie(HttpServletResponse response, long written) {
+        if (response.isCommitted()) {
+            return false;
+        }
+        Cookie cookie = new Cookie(COOKIE, Long.toString(written));
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge((int) Math.max(1, (stickyMillis + 999) / 1000));
+        response.addCookie(cookie);
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.datasource;
+
+import java.util.function.LongConsumer;
+
+/**
+ * 一个调用方（一次请求）的读己之写标记：记着这个调用方最后一次写的时间，只影响它自己的读走不走主库
+ * 开始时的时间由调用方带过来（比如cookie），作用域里的写更新它并通知onWrite，好把时间还给调用方
+ * 作用域只在当前线程生效，没有作用域的读一律按读写分离走副本
+ *
+ * @author yufengyang
+ * @Package org.example.datasource
+ * @date 2025/9/23 17:20
+ * @school hnist
+ */
+public final class ReadYourWritesScope implements AutoCloseable {
+    private static final ThreadLocal<ReadYourWritesScope> CURRENT = new ThreadLocal<>();
+
+    private final ReadYourWritesScope previous;
+    private final LongConsumer onWrite;
+    // 这个调用方最后一次写的时间（毫秒），0表示没写过
+    private volatile long lastWriteMillis;
+    // 本作用域里最后一次写的时间，0表示没写过
+    private volatile long writtenMillis;
+
+    private ReadYourWritesScope(long lastWriteMillis, LongConsumer onWrite, ReadYourWritesScope previous) {
+        this.lastWriteMillis = lastWriteMillis;
+        this.onWrite = onWrite;
+        this.previous = previous;
+    }
+
+    /**
+     * 开始一个作用域，必须close，配合try-with-resources使用
+     * @param lastWriteMillis 调用方带过来的上次写的时间，没有时传0
+     * @param onWrite 作用域里每次写之后调用，参数是写的时间；可以为null
+     */
+    public static ReadYourWritesScope start(long lastWriteMillis, LongConsumer onWrite) {
+        ReadYourWritesScope scope = new ReadYourWritesScope(lastWriteMillis, onWrite, CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    public static ReadYourWritesScope current() {
+        return CURRENT.get();
+    }
+
+    // 写完成之后由ReadWriteRoutingInterceptor调用
+    void written(long millis) {
+        lastWriteMillis = millis;
+        writtenMillis = millis;
+        if (onWrite != null) {
+            onWrite.accept(millis);
+        }
+    }
+
+    public long getLastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    public long getWrittenMillis() {
+        return writtenMillis;
+    }
+
+    @Override
+    public void close() {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
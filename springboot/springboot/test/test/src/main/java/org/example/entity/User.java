@@ -1,5 +1,7 @@
 package org.example.entity;
 
+import java.io.Serializable;
+
 /**
  * @author yufengyang
  * @Package org.example.entity
@@ -7,7 +9,9 @@ package org.example.entity;
  * @school hnist
  */
 
-public class User {
+public class User implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private Long id;
     private String name;
     private Integer age;
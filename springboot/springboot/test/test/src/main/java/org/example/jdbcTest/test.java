@@ -1,6 +1,7 @@
 package org.example.jdbcTest;
 
 import org.example.entity.User;
+import org.example.mapping.RowMapper;
 
 import java.sql.*;
 import java.util.ArrayList;
@@ -50,12 +51,10 @@ public class test {
         preparedStatement.setString(1,keyword);
         ResultSet set = preparedStatement.executeQuery();
 
+        // 列下标在这里解析一次，之后每行直接按下标取值调setter
+        RowMapper.Rows<User> rows = RowMapper.of(User.class).bind(set.getMetaData());
         while (set.next()){
-            User user = new User();
-            user.setId(set.getLong("id"));
-            user.setName(set.getString("name"));
-            user.setAge(set.getInt("age"));
-            list.add(user);
+            list.add(rows.map(set));
         }
         return list;
 
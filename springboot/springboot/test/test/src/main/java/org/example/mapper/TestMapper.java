@@ -1,10 +1,12 @@
 package org.example.mapper;
 
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 import org.example.entity.User;
 import org.example.plugin2.Page;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author yufengyang
@@ -20,9 +22,16 @@ public interface TestMapper {
 
    public ArrayList<User> findByname(@Param("name")String name);
 
+   public ArrayList<User> findByIds(@Param("ids") long[] ids);
+
    public void addUser(User user);
 
+   public int addUsers(@Param("users") List<User> users);
+
    public ArrayList<User> findAllPage();
 
    Page<User> findAllPage2();
+
+   // 必须在事务里使用，游标关闭前连接一直被占用
+   Cursor<User> exportAll();
 }
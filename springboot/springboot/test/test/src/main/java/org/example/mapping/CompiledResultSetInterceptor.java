@@ -0,0 +1,84 @@
+package org.example.mapping;
+
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.AutoMappingBehavior;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Set;
+
+/**
+ * 结果集映射换成RowMapper：只接管resultType是登记过的实体、没有resultMap映射规则的简单查询，
+ * 其它情况（嵌套映射、RowBounds内存分页、ResultHandler、多结果集）照旧交给MyBatis
+ * 登记的实体不能依赖自定义TypeHandler，列值按类型直接从结果集取
+ *
+ * @author yufengyang
+ * @Package org.example.mapping
+ * @date 2025/9/23 11:05
+ * @school hnist
+ */
+@Intercepts({
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = {Statement.class}),
+        @Signature(type = ResultSetHandler.class, method = "handleCursorResultSets", args = {Statement.class})
+})
+public class CompiledResultSetInterceptor implements Interceptor {
+    private final Set<Class<?>> types;
+
+    public CompiledResultSetInterceptor(Class<?>... types) {
+        this.types = Set.of(types);
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        if (!(invocation.getTarget() instanceof DefaultResultSetHandler handler)) {
+            return invocation.proceed();
+        }
+        // 语句、RowBounds、ResultHandler都在DefaultResultSetHandler的私有字段里
+        MetaObject metaObject = SystemMetaObject.forObject(handler);
+        MappedStatement ms = (MappedStatement) metaObject.getValue("mappedStatement");
+        RowBounds rowBounds = (RowBounds) metaObject.getValue("rowBounds");
+        ResultHandler<?> resultHandler = (ResultHandler<?>) metaObject.getValue("resultHandler");
+        Class<?> type = compiledType(ms, rowBounds, resultHandler);
+        if (type == null) {
+            return invocation.proceed();
+        }
+        Statement statement = (Statement) invocation.getArgs()[0];
+        ResultSet resultSet = statement.getResultSet();
+        if (resultSet == null) {
+            return invocation.proceed();
+        }
+        RowMapper<?> mapper = RowMapper.of(type, ms.getConfiguration().isMapUnderscoreToCamelCase());
+        if ("handleCursorResultSets".equals(invocation.getMethod().getName())) {
+            return new RowMapperCursor<>(resultSet, mapper);
+        }
+        try (resultSet) {
+            return mapper.mapAll(resultSet);
+        }
+    }
+
+    // 能接管时返回实体类型，否则返回null
+    private Class<?> compiledType(MappedStatement ms, RowBounds rowBounds, ResultHandler<?> resultHandler) {
+        if (ms.getResultMaps().size() != 1 || ms.getResultSets() != null || resultHandler != null
+                || rowBounds.getOffset() != RowBounds.NO_ROW_OFFSET || rowBounds.getLimit() != RowBounds.NO_ROW_LIMIT
+                || ms.getConfiguration().getAutoMappingBehavior() == AutoMappingBehavior.NONE) {
+            return null;
+        }
+        ResultMap resultMap = ms.getResultMaps().get(0);
+        if (!resultMap.getResultMappings().isEmpty() || resultMap.hasNestedResultMaps() || resultMap.getDiscriminator() != null
+                || Boolean.FALSE.equals(resultMap.getAutoMapping()) || !types.contains(resultMap.getType())) {
+            return null;
+        }
+        return resultMap.getType();
+    }
+}
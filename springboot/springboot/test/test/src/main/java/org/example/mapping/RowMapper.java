@@ -0,0 +1,222 @@
+package org.example.mapping;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * 实体的行映射：构造器和setter在第一次用时用LambdaMetafactory编译成普通的接口调用，
+ * 列名到setter的对应关系每个结果集只解析一次，之后每行按列下标取值直接调setter，不反射、不按列名查找
+ * 和MyBatis默认行为一样，值为null的列不调setter，结果集里多出来的列忽略
+ *
+ * @author yufengyang
+ * @Package org.example.mapping
+ * @date 2025/9/23 10:20
+ * @school hnist
+ */
+public final class RowMapper<T> {
+    private static final ConcurrentMap<MapperKey, RowMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+
+    private final Class<T> type;
+    private final Supplier<T> constructor;
+    // 归一化后的属性名 -> 从结果集取值并调setter
+    private final Map<String, ColumnBinder<T>> binders;
+    private final boolean mapUnderscoreToCamelCase;
+
+    private RowMapper(Class<T> type, boolean mapUnderscoreToCamelCase) {
+        this.type = type;
+        this.mapUnderscoreToCamelCase = mapUnderscoreToCamelCase;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            this.constructor = compileConstructor(lookup, type);
+            Map<String, ColumnBinder<T>> binders = new HashMap<>();
+            for (Method method : type.getMethods()) {
+                if (isSetter(method)) {
+                    String property = Character.toLowerCase(method.getName().charAt(3)) + method.getName().substring(4);
+                    binders.put(normalize(property, false), binder(method.getParameterTypes()[0], compileSetter(lookup, type, method)));
+                }
+            }
+            this.binders = binders;
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("不能为" + type.getName() + "生成行映射", e);
+        }
+    }
+
+    public static <T> RowMapper<T> of(Class<T> type) {
+        return of(type, true);
+    }
+
+    /**
+     * 每个类型只编译一次
+     * @param mapUnderscoreToCamelCase 和MyBatis的同名配置一样，user_name对应userName
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> of(Class<T> type, boolean mapUnderscoreToCamelCase) {
+        return (RowMapper<T>) MAPPERS.computeIfAbsent(new MapperKey(type, mapUnderscoreToCamelCase),
+                key -> new RowMapper<>(type, mapUnderscoreToCamelCase));
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * 按结果集的列解析出每列对应的setter，结果集打开后调一次
+     */
+    public Rows<T> bind(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        List<Integer> columns = new ArrayList<>(count);
+        List<ColumnBinder<T>> matched = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            ColumnBinder<T> binder = binders.get(normalize(metaData.getColumnLabel(i), mapUnderscoreToCamelCase));
+            if (binder != null) {
+                columns.add(i);
+                matched.add(binder);
+            }
+        }
+        return new Rows<>(constructor, columns.stream().mapToInt(Integer::intValue).toArray(), List.copyOf(matched));
+    }
+
+    // 读完整个结果集，不关闭
+    public List<T> mapAll(ResultSet resultSet) throws SQLException {
+        Rows<T> rows = bind(resultSet.getMetaData());
+        List<T> list = new ArrayList<>();
+        while (resultSet.next()) {
+            list.add(rows.map(resultSet));
+        }
+        return list;
+    }
+
+    /**
+     * 绑定到某个结果集的列之后的映射，只在这个结果集上用
+     */
+    public static final class Rows<T> {
+        private final Supplier<T> constructor;
+        private final int[] columns;
+        // 泛型数组只能靠unchecked转换创建，用不可变list，get就是数组下标访问
+        private final List<ColumnBinder<T>> binders;
+
+        private Rows(Supplier<T> constructor, int[] columns, List<ColumnBinder<T>> binders) {
+            this.constructor = constructor;
+            this.columns = columns;
+            this.binders = binders;
+        }
+
+        // 映射当前行，调用前结果集要已经next过
+        public T map(ResultSet resultSet) throws SQLException {
+            T target = constructor.get();
+            for (int i = 0; i < columns.length; i++) {
+                binders.get(i).bind(resultSet, columns[i], target);
+            }
+            return target;
+        }
+    }
+
+    // 生成的setter类定义在实体所在的包里，接口要public它才能实现
+    @FunctionalInterface
+    public interface Setter<T, V> {
+        void set(T target, V value);
+    }
+
+    @FunctionalInterface
+    interface ColumnBinder<T> {
+        void bind(ResultSet resultSet, int column, T target) throws SQLException;
+    }
+
+    // 常用类型用对应的getXxx，避免getObject的装箱和类型判断，其它类型交给驱动转换
+    @SuppressWarnings("unchecked")
+    private static <T> ColumnBinder<T> binder(Class<?> parameterType, Setter<T, ?> compiled) {
+        if (parameterType == Long.class || parameterType == long.class) {
+            Setter<T, Long> setter = (Setter<T, Long>) compiled;
+            return (rs, column, target) -> {
+                long value = rs.getLong(column);
+                if (!rs.wasNull()) {
+                    setter.set(target, value);
+                }
+            };
+        }
+        if (parameterType == Integer.class || parameterType == int.class) {
+            Setter<T, Integer> setter = (Setter<T, Integer>) compiled;
+            return (rs, column, target) -> {
+                int value = rs.getInt(column);
+                if (!rs.wasNull()) {
+                    setter.set(target, value);
+                }
+            };
+        }
+        if (parameterType == String.class) {
+            Setter<T, String> setter = (Setter<T, String>) compiled;
+            return (rs, column, target) -> {
+                String value = rs.getString(column);
+                if (value != null) {
+                    setter.set(target, value);
+                }
+            };
+        }
+        if (parameterType == BigDecimal.class) {
+            Setter<T, BigDecimal> setter = (Setter<T, BigDecimal>) compiled;
+            return (rs, column, target) -> {
+                BigDecimal value = rs.getBigDecimal(column);
+                if (value != null) {
+                    setter.set(target, value);
+                }
+            };
+        }
+        Class<?> boxed = MethodType.methodType(parameterType).wrap().returnType();
+        Setter<T, Object> setter = (Setter<T, Object>) compiled;
+        return (rs, column, target) -> {
+            Object value = rs.getObject(column, boxed);
+            if (value != null) {
+                setter.set(target, value);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> compileConstructor(MethodHandles.Lookup lookup, Class<T> type) throws Throwable {
+        MethodHandle handle = lookup.findConstructor(type, MethodType.methodType(void.class));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                MethodType.methodType(Object.class), handle, MethodType.methodType(type));
+        return (Supplier<T>) site.getTarget().invokeExact();
+    }
+
+    // 基本类型的setter按包装类型接收，由生成的类拆箱
+    @SuppressWarnings("unchecked")
+    private static <T> Setter<T, ?> compileSetter(MethodHandles.Lookup lookup, Class<T> type, Method method) throws Throwable {
+        MethodHandle handle = lookup.unreflect(method);
+        Class<?> parameterType = MethodType.methodType(method.getParameterTypes()[0]).wrap().returnType();
+        CallSite site = LambdaMetafactory.metafactory(lookup, "set", MethodType.methodType(Setter.class),
+                MethodType.methodType(void.class, Object.class, Object.class), handle,
+                MethodType.methodType(void.class, type, parameterType));
+        return (Setter<T, ?>) site.getTarget().invokeExact();
+    }
+
+    private static boolean isSetter(Method method) {
+        return method.getName().length() > 3 && method.getName().startsWith("set") && method.getParameterCount() == 1
+                && method.getReturnType() == void.class && !Modifier.isStatic(method.getModifiers());
+    }
+
+    private static String normalize(String name, boolean stripUnderscore) {
+        String lower = name.toLowerCase(Locale.ENGLISH);
+        return stripUnderscore ? lower.replace("_", "") : lower;
+    }
+
+    private record MapperKey(Class<?> type, boolean mapUnderscoreToCamelCase) {
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.mapping;
+
+import org.apache.ibatis.cursor.Cursor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 用RowMapper逐行映射的游标，读完或者close时关掉结果集；语句由executor设置的closeOnCompletion跟着关闭
+ *
+ * @author yufengyang
+ * @Package org.example.mapping
+ * @date 2025/9/23 11:30
+ * @school hnist
+ */
+class RowMapperCursor<T> implements Cursor<T> {
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private RowMapper.Rows<T> rows;
+    private T next;
+    private int index = -1;
+    private boolean consumed;
+    private boolean closed;
+    private boolean iteratorRetrieved;
+
+    RowMapperCursor(ResultSet resultSet, RowMapper<T> mapper) {
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && rows != null;
+    }
+
+    @Override
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return index;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (iteratorRetrieved) {
+            throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+        }
+        if (closed) {
+            throw new IllegalStateException("A Cursor is already closed.");
+        }
+        iteratorRetrieved = true;
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return advance();
+            }
+
+            @Override
+            public T next() {
+                if (!advance()) {
+                    throw new NoSuchElementException();
+                }
+                T value = next;
+                next = null;
+                index++;
+                return value;
+            }
+        };
+    }
+
+    // 预读一行放进next，没有了就关掉结果集
+    private boolean advance() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            if (rows == null) {
+                rows = mapper.bind(resultSet.getMetaData());
+            }
+            if (resultSet.next()) {
+                next = rows.map(resultSet);
+                return true;
+            }
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException("读取游标失败", e);
+        }
+        consumed = true;
+        close();
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+        } catch (SQLException ignored) {
+            // 关闭失败不影响调用方，连接归还时驱动会清理
+        }
+    }
+}
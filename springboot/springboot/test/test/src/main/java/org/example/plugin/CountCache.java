@@ -0,0 +1,54 @@
+package org.example.plugin;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.MappedStatement;
+
+import java.sql.SQLException;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/8/24 11:05
+ * @school hnist
+ */
+public interface CountCache {
+
+    /**
+     * 先查缓存，没命中再调用loader执行count并放入缓存
+     * @param key statement id + 绑定参数生成的CacheKey
+     */
+    default long getOrCount(MappedStatement ms, CacheKey key, CountLoader loader) throws SQLException {
+        Long total = getIfPresent(ms, key);
+        return total != null ? total : load(ms, key, loader);
+    }
+
+    /**
+     * 只查缓存，没有返回null
+     */
+    Long getIfPresent(MappedStatement ms, CacheKey key);
+
+    /**
+     * 不查缓存，直接执行loader并放入缓存
+     */
+    long load(MappedStatement ms, CacheKey key, CountLoader loader) throws SQLException;
+
+    /**
+     * namespace下有写操作时调用，清掉该namespace的所有count
+     */
+    void invalidate(String namespace);
+
+    long getHits();
+
+    long getMisses();
+
+    @FunctionalInterface
+    interface CountLoader {
+        long load() throws SQLException;
+    }
+
+    static String namespaceOf(MappedStatement ms) {
+        String id = ms.getId();
+        int idx = id.lastIndexOf('.');
+        return idx > -1 ? id.substring(0, idx) : id;
+    }
+}
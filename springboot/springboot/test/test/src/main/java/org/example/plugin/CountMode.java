@@ -0,0 +1,16 @@
+package org.example.plugin;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/9/13 14:26
+ * @school hnist
+ */
+public enum CountMode {
+    // 执行count(*)，有count缓存时走缓存
+    EXACT,
+    // 不带条件的单表查询直接读information_schema里的行数估计，其它情况退回EXACT
+    ESTIMATED,
+    // 不count，多取一行判断有没有下一页，total为-1，用hasNext
+    NONE
+}
@@ -0,0 +1,76 @@
+package org.example.plugin;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.example.cache.LruCache;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/8/24 11:20
+ * @school hnist
+ */
+public class LruCountCache implements CountCache {
+    private final LruCache<Key, Long> cache;
+    // 每个namespace一个版本号，count期间发生写操作的结果不放进缓存
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public LruCountCache(int maxSize, long ttlMillis) {
+        this.cache = new LruCache<>(maxSize, ttlMillis);
+    }
+
+    @Override
+    public Long getIfPresent(MappedStatement ms, CacheKey key) {
+        return cache.get(new Key(CountCache.namespaceOf(ms), key));
+    }
+
+    @Override
+    public long load(MappedStatement ms, CacheKey key, CountLoader loader) throws SQLException {
+        String namespace = CountCache.namespaceOf(ms);
+        AtomicLong version = versions.computeIfAbsent(namespace, n -> new AtomicLong());
+        long before = version.get();
+        long count = loader.load();
+        if (version.get() == before) {
+            Key cacheKey = new Key(namespace, key);
+            cache.put(cacheKey, count);
+            // 先放再检查：invalidate是先加版本再清，放晚了也会在这里被删掉
+            if (version.get() != before) {
+                cache.remove(cacheKey);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void invalidate(String namespace) {
+        versions.computeIfAbsent(namespace, n -> new AtomicLong()).incrementAndGet();
+        cache.removeIf(k -> k.namespace().equals(namespace));
+    }
+
+    @Override
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    @Override
+    public String toString() {
+        return "LruCountCache{" + cache + "}";
+    }
+
+    private record Key(String namespace, CacheKey cacheKey) {
+    }
+}
@@ -9,9 +9,14 @@ package org.example.plugin;
 public class PageParam {
     private final int pageNum;
     private final int pageSize;
+    private final CountMode countMode;
     public  PageParam(int pageNum,int pageSize){
+        this(pageNum, pageSize, CountMode.EXACT);
+    }
+    public  PageParam(int pageNum,int pageSize,CountMode countMode){
         this.pageNum = pageNum;
         this.pageSize = pageSize;
+        this.countMode = countMode;
     }
 
     public int getPageNum() {
@@ -22,6 +27,10 @@ public class PageParam {
         return pageSize;
     }
 
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
     public int offset(){
         return (pageNum-1)*pageSize;
     }
@@ -11,17 +11,38 @@ import java.util.List;
  * @school hnist
  */
 public class PageResult<T> implements Serializable {
+    // -1表示总数未知，比如并行count超时
     private final long total;
     private final List<T> data;
+    // keyset分页的下一页游标，普通分页为null
+    private final Object nextCursor;
+    // false表示total是估算值（CountMode.ESTIMATED）或者未知
+    private final boolean exact;
+    // 还有没有下一页，CountMode.NONE时只有这个字段可用
+    private boolean hasNext;
 
     public PageResult(long total, List<T> data) {
+        this(total, data, null);
+    }
+
+    public PageResult(long total, List<T> data, Object nextCursor) {
+        this(total, data, nextCursor, total != PaginationSupport.TOTAL_UNKNOWN);
+    }
+
+    public PageResult(long total, List<T> data, Object nextCursor, boolean exact) {
         this.total = total;
         this.data = data;
+        this.nextCursor = nextCursor;
+        this.exact = exact;
     }
 
     public long getTotal(){return total;}
     public List<T> getData(){
         return data;
     }
+    public Object getNextCursor(){return nextCursor;}
+    public boolean isExact(){return exact;}
+    public boolean isHasNext(){return hasNext;}
+    public void setHasNext(boolean hasNext){this.hasNext = hasNext;}
 
 }
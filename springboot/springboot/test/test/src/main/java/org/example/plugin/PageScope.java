@@ -0,0 +1,173 @@
+package org.example.plugin;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 两个分页插件共用的分页上下文：作用域内执行的第一条查询被分页，查完的总数等结果写回这里
+ * <pre>
+ * try (PageScope scope = PageScope.start(pageParam)) {
+ *     List&lt;User&gt; list = mapper.findAllPage();
+ *     long total = scope.getTotal();
+ * }
+ * PageResult&lt;User&gt; result = PageScope.query(pageParam, mapper::findAllPage);
+ * </pre>
+ * 作用域只在当前线程生效，交给其他线程执行时用wrap/propagating显式传过去
+ *
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/9/19 20:14
+ * @school hnist
+ */
+public final class PageScope implements AutoCloseable {
+    private static final ThreadLocal<PageScope> CURRENT = new ThreadLocal<>();
+
+    private final PageParam page;
+    // 嵌套时外层的作用域，close时恢复
+    private final PageScope previous;
+    // 被插件取走之后同一作用域里后面的查询不再分页
+    private final AtomicBoolean consumed = new AtomicBoolean();
+    private volatile long total = PaginationSupport.TOTAL_UNKNOWN;
+    private volatile boolean exact = true;
+    private volatile boolean hasNext;
+    private volatile Object nextCursor;
+
+    private PageScope(PageParam page, PageScope previous) {
+        this.page = page;
+        this.previous = previous;
+    }
+
+    /**
+     * 开始一个分页作用域，必须close，配合try-with-resources使用
+     */
+    public static PageScope start(PageParam page) {
+        PageScope scope = new PageScope(page, CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * 在作用域里执行query，返回带总数的结果，执行完作用域自动结束
+     */
+    public static <T> PageResult<T> query(PageParam page, Supplier<? extends List<T>> query) {
+        try (PageScope scope = start(page)) {
+            List<T> data = query.get();
+            PageResult<T> result = new PageResult<>(scope.total, data, scope.nextCursor, scope.exact);
+            result.setHasNext(scope.hasNext);
+            return result;
+        }
+    }
+
+    // 给PaginationContext/PageHelper的旧接口用：替换当前线程上的作用域，要靠clear结束
+    public static PageScope open(PageParam page) {
+        PageScope scope = new PageScope(page, null);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    public static PageScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 插件调用：当前作用域还没被用过时返回它并标记为已用，否则返回null
+     */
+    public static PageScope take() {
+        PageScope scope = CURRENT.get();
+        return scope != null && scope.consumed.compareAndSet(false, true) ? scope : null;
+    }
+
+    // 连同外层作用域一起清掉
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * 把当前线程的作用域带到执行task的线程上，执行完恢复那个线程原来的状态；当前没有作用域时task在没有作用域的情况下执行
+     */
+    public static Runnable wrap(Runnable task) {
+        PageScope captured = CURRENT.get();
+        return () -> {
+            PageScope before = swap(captured);
+            try {
+                task.run();
+            } finally {
+                swap(before);
+            }
+        };
+    }
+
+    public static <V> Callable<V> wrap(Callable<V> task) {
+        PageScope captured = CURRENT.get();
+        return () -> {
+            PageScope before = swap(captured);
+            try {
+                return task.call();
+            } finally {
+                swap(before);
+            }
+        };
+    }
+
+    // 提交到这个executor的任务都带上提交时的作用域
+    public static Executor propagating(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    private static PageScope swap(PageScope scope) {
+        PageScope before = CURRENT.get();
+        if (scope == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(scope);
+        }
+        return before;
+    }
+
+    // 插件查完之后写回
+    public void complete(long total, boolean exact, boolean hasNext) {
+        this.total = total;
+        this.exact = exact;
+        this.hasNext = hasNext;
+    }
+
+    public void setNextCursor(Object nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public PageParam getPage() {
+        return page;
+    }
+
+    public boolean isConsumed() {
+        return consumed.get();
+    }
+
+    // 查询还没执行或者总数未知时为-1
+    public long getTotal() {
+        return total;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    public Object getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public void close() {
+        // 只有自己还在栈顶时才出栈，乱序close不影响别的作用域
+        if (CURRENT.get() == this) {
+            swap(previous);
+        }
+    }
+}
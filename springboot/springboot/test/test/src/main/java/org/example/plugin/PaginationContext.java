@@ -1,6 +1,7 @@
 package org.example.plugin;
 
 /**
+ * 旧接口，内部就是PageScope；新代码直接用PageScope.start/PageScope.query
  * @author yufengyang
  * @Package org.example.plugin
  * @date 2025/8/16 20:41
@@ -8,32 +9,41 @@ package org.example.plugin;
  */
 public class PaginationContext {
     private PaginationContext(){}
-    private static final ThreadLocal<PageParam> PAGE_HOLDER = new ThreadLocal<>();
-    private static final ThreadLocal<Long> TOTAL_HOLDER = new ThreadLocal<>();
+    // setPageHolder之后只有下一条查询被分页，查完的结果一直留到clearAll，所以用完都要在finally里clearAll
 
     public static void setPageHolder(PageParam pageParam){
-        PAGE_HOLDER.set(pageParam);
+        PageScope.open(pageParam);
     }
-    public static void setTotalHolder(Long totalHoldder){
-        TOTAL_HOLDER.set(totalHoldder);
+    // countMode为ESTIMATED时total可能是估算值，查完用isExact判断
+    public static void setPageHolder(int pageNum, int pageSize, CountMode countMode){
+        PageScope.open(new PageParam(pageNum, pageSize, countMode));
     }
 
     public static PageParam getPageHolder(){
-        return PAGE_HOLDER.get();
+        PageScope scope = PageScope.current();
+        return scope == null ? null : scope.getPage();
     }
 
+    // 没有分页过时返回null
     public static Long getTotalHolder(){
-        return TOTAL_HOLDER.get();
+        PageScope scope = PageScope.current();
+        return scope == null || !scope.isConsumed() ? null : scope.getTotal();
     }
-    public static void clearPageHoler(){
-        PAGE_HOLDER.remove();
+
+    public static boolean isExact(){
+        PageScope scope = PageScope.current();
+        return scope == null || scope.isExact();
     }
-    public static void clearTotalHolder(){
-        TOTAL_HOLDER.remove();
+
+    public static boolean hasNext(){
+        PageScope scope = PageScope.current();
+        return scope != null && scope.isHasNext();
+    }
+    public static void clearPageHoler(){
+        PageScope.clear();
     }
     public static void clearAll(){
-        clearPageHoler();
-        clearTotalHolder();
+        PageScope.clear();
     }
 
 }
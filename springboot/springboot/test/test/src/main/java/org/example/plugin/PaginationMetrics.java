@@ -0,0 +1,134 @@
+package org.example.plugin;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.ibatis.mapping.MappedStatement;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/9/2 22:06
+ * @school hnist
+ */
+public class PaginationMetrics {
+    // 没有MeterRegistry时什么都不记
+    public static final PaginationMetrics NOOP = new PaginationMetrics(null);
+
+    private static final StatementMeters NOOP_METERS = new StatementMeters(null, null, null, null);
+
+    private final MeterRegistry registry;
+    // meter按statement id注册一次，之后每次记录只查一次map，不再分配
+    private final ConcurrentMap<String, StatementMeters> meters = new ConcurrentHashMap<>();
+
+    public PaginationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public StatementMeters forStatement(MappedStatement ms) {
+        if (registry == null) {
+            return NOOP_METERS;
+        }
+        StatementMeters statementMeters = meters.get(ms.getId());
+        return statementMeters != null ? statementMeters : meters.computeIfAbsent(ms.getId(), this::register);
+    }
+
+    private StatementMeters register(String statement) {
+        Timer count = Timer.builder("pagination.count")
+                .description("count查询耗时")
+                .tag("statement", statement)
+                .publishPercentileHistogram()
+                .register(registry);
+        Timer fetch = Timer.builder("pagination.fetch")
+                .description("分页数据查询耗时")
+                .tag("statement", statement)
+                .publishPercentileHistogram()
+                .register(registry);
+        DistributionSummary offset = DistributionSummary.builder("pagination.offset")
+                .description("分页offset深度")
+                .tag("statement", statement)
+                .publishPercentileHistogram()
+                .register(registry);
+        DistributionSummary rows = DistributionSummary.builder("pagination.rows")
+                .description("每页返回行数")
+                .tag("statement", statement)
+                .publishPercentileHistogram()
+                .register(registry);
+        return new StatementMeters(count, fetch, offset, rows);
+    }
+
+    /**
+     * count缓存的命中/未命中次数，直接读缓存里的计数器
+     */
+    public void bindCountCache(CountCache countCache) {
+        if (registry == null || countCache == null) {
+            return;
+        }
+        FunctionCounter.builder("pagination.count.cache", countCache, CountCache::getHits)
+                .description("count缓存命中次数")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("pagination.count.cache", countCache, CountCache::getMisses)
+                .description("count缓存未命中次数")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    // 合并到相同分页查询上、没有自己查库的请求数
+    public void bindSingleFlight(PaginationSupport support) {
+        if (registry == null) {
+            return;
+        }
+        FunctionCounter.builder("pagination.single-flight.shared", support, PaginationSupport::getSharedCount)
+                .description("共享了别的请求结果的分页查询次数")
+                .register(registry);
+    }
+
+    // 分页请求有没有直接用上后台预取好的结果
+    public void bindPrefetch(PaginationSupport support) {
+        if (registry == null) {
+            return;
+        }
+        FunctionCounter.builder("pagination.prefetch", support, PaginationSupport::getPrefetchHits)
+                .description("命中预取结果的分页请求数")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("pagination.prefetch", support, PaginationSupport::getPrefetchMisses)
+                .description("没有预取结果的分页请求数")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    public static class StatementMeters {
+        private final Timer count;
+        private final Timer fetch;
+        private final DistributionSummary offset;
+        private final DistributionSummary rows;
+
+        StatementMeters(Timer count, Timer fetch, DistributionSummary offset, DistributionSummary rows) {
+            this.count = count;
+            this.fetch = fetch;
+            this.offset = offset;
+            this.rows = rows;
+        }
+
+        public void recordCount(long nanos) {
+            if (count != null) {
+                count.record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        public void recordFetch(long nanos, long offsetDepth, int rowCount) {
+            if (fetch != null) {
+                fetch.record(nanos, TimeUnit.NANOSECONDS);
+                offset.record(offsetDepth);
+                rows.record(rowCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,885 @@
+package org.example.plugin;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.apache.ibatis.reflection.MetaObject;
+import org.example.cache.LruCache;
+import org.example.shard.ShardRouter;
+import org.mybatis.spring.transaction.SpringManagedTransaction;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/8/28 21:40
+ * @school hnist
+ */
+public class PaginationSupport {
+    // 并行count超时时返回的total，表示总数未知
+    public static final long TOTAL_UNKNOWN = -1L;
+
+    // limit的两个值作为jdbc参数绑定，sql模板不随页码变化
+    public static final String PAGE_OFFSET = "_page_offset";
+    public static final String PAGE_SIZE = "_page_size";
+
+    private final CountCache countCache;
+    private final SqlRewriter sqlRewriter = new SqlRewriter();
+    private final ConcurrentMap<String, ParameterMapping> extraMappings = new ConcurrentHashMap<>();
+    private volatile PaginationMetrics metrics = PaginationMetrics.NOOP;
+    private volatile SlowQueryRecorder slowQueryRecorder;
+    private ThreadPoolExecutor countPool;
+    private long countTimeoutMillis;
+    // 数据库没有information_schema.TABLES.TABLE_ROWS（比如H2）时置为false，之后的估算直接退回精确count
+    private volatile boolean estimateSupported = true;
+    // 正在执行的分页查询，key是分页sql的CacheKey加countMode
+    private final ConcurrentMap<FlightKey, CompletableFuture<Fetched>> inFlight = new ConcurrentHashMap<>();
+    private volatile long singleFlightWaitMillis;
+    // offset不小于它时用延迟关联的分页sql，0表示关闭
+    private volatile int deferredJoinMinOffset;
+    private final LongAdder shared = new LongAdder();
+    // 下一页预取：后台线程查好放进短期缓存，请求先查这里
+    private ThreadPoolExecutor prefetchPool;
+    private volatile LruCache<FlightKey, Fetched> prefetched;
+    private final Set<FlightKey> prefetching = ConcurrentHashMap.newKeySet();
+    // 每次写操作加一，预取期间发生过写的结果不留
+    private final AtomicLong prefetchVersion = new AtomicLong();
+    private volatile BooleanSupplier poolBusy = () -> false;
+    // 分片路由，为null时不分片
+    private volatile ShardRouter shardRouter;
+    // 后台count和预取任务提交前经过它，把请求线程上的上下文带到线程池里
+    private volatile UnaryOperator<Runnable> taskDecorator = UnaryOperator.identity();
+    // 写操作之后按namespace通知，为null时不通知
+    private volatile Consumer<String> updateListener;
+
+    public PaginationSupport() {
+        this(null);
+    }
+
+    // countCache为null时不缓存count
+    public PaginationSupport(CountCache countCache) {
+        this.countCache = countCache;
+    }
+
+    /**
+     * 打开并行count：count在单独的连接上和分页查询同时执行，超时后total返回TOTAL_UNKNOWN
+     * 每个分页请求会同时占用两个连接，连接池要留够
+     */
+    public synchronized void enableParallelCount(int threads, long timeoutMillis) {
+        if (countPool != null) {
+            countPool.shutdown();
+        }
+        AtomicInteger seq = new AtomicInteger();
+        countPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4), r -> {
+                    Thread t = new Thread(r, "page-count-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        countPool.allowCoreThreadTimeOut(true);
+        countTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 打开相同分页查询的合并：同一时刻statement、参数、页码都相同的请求只有第一个查库，其余的最多等waitMillis
+     * 等超时或者第一个失败时自己再查一次
+     */
+    public void enableSingleFlight(long waitMillis) {
+        this.singleFlightWaitMillis = waitMillis;
+    }
+
+    /**
+     * 打开深分页的延迟关联改写：offset达到minOffset且sql能安全改写时，先按主键分页再join回原表
+     */
+    public void enableDeferredJoin(int minOffset) {
+        this.deferredJoinMinOffset = minOffset;
+    }
+
+    /**
+     * 打开分片：分页查询向所有分片并行count和取数，再按排序归并出这一页
+     */
+    public void enableSharding(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+    }
+
+    /**
+     * 设置后台count和预取任务的包装，比如读写分离时把读标记带过去，这些任务才会去副本上查
+     */
+    public void setTaskDecorator(UnaryOperator<Runnable> taskDecorator) {
+        this.taskDecorator = taskDecorator == null ? UnaryOperator.identity() : taskDecorator;
+    }
+
+    /**
+     * 每次写操作之后用语句的namespace回调，给插件之外的缓存做失效
+     */
+    public void setUpdateListener(Consumer<String> updateListener) {
+        this.updateListener = updateListener;
+    }
+
+    public boolean isSharded() {
+        return shardRouter != null;
+    }
+
+    /**
+     * 分片的offset分页：每个分片按mergeSql排好序后只取前 offset+条数 行，全局这一页的行不可能在某个分片上排得更靠后
+     */
+    public BoundSql shardPageBoundSql(MappedStatement ms, BoundSql boundSql, SqlRewriter.Rewritten rewritten,
+                                      Object parameterObject, PageParam page) {
+        if (rewritten.mergeSql() == null) {
+            throw new IllegalStateException("分片模式下这条查询不能分页（需要单表、不带聚合/distinct/limit、order by是普通列）: " + ms.getId());
+        }
+        BoundSql shardBoundSql = newBoundSql(ms, boundSql, rewritten.mergeSql() + " LIMIT ?, ?", parameterObject, 2);
+        bind(ms, shardBoundSql, PAGE_OFFSET, Integer.class, 0);
+        bind(ms, shardBoundSql, PAGE_SIZE, Integer.class, page.offset() + fetchSize(page));
+        return shardBoundSql;
+    }
+
+    /**
+     * 分片分页：各分片并行count并执行shardBoundSql，按order归并后跳过skip行取take行，total是各分片之和
+     * ESTIMATED模式在分片上也是精确count
+     */
+    public Fetched scatterPage(MappedStatement ms, Object parameterObject, BoundSql boundSql, CacheKey cacheKey,
+                               SqlRewriter.Rewritten rewritten, PageParam page, BoundSql shardBoundSql,
+                               List<SqlRewriter.SortKey> order, int skip, int take) throws SQLException {
+        ShardRouter router = shardRouter;
+        Long cached = null;
+        if (page.getCountMode() != CountMode.NONE && countCache != null) {
+            cached = countCache.getIfPresent(ms, cacheKey);
+        }
+        boolean count = page.getCountMode() != CountMode.NONE && cached == null;
+        long start = System.nanoTime();
+        List<ShardPage> parts = router.scatter(ms.getConfiguration(), router.allShards(), (shard, executor) -> {
+            long total = count ? queryCount(executor.getTransaction().getConnection(), ms, parameterObject, boundSql, rewritten.countSql()) : 0;
+            CacheKey key = executor.createCacheKey(ms, parameterObject, RowBounds.DEFAULT, shardBoundSql);
+            List<Object> rows = executor.query(ms, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, key, shardBoundSql);
+            return new ShardPage(rows, total);
+        });
+        List<List<Object>> rows = new ArrayList<>(parts.size());
+        long sum = 0;
+        for (ShardPage part : parts) {
+            rows.add(part.rows());
+            sum += part.total();
+        }
+        List<Object> merged = merge(ms.getConfiguration(), rows, order, skip, take);
+        recordFetch(ms, shardBoundSql, parameterObject, System.nanoTime() - start, page.offset(), merged);
+        if (page.getCountMode() == CountMode.NONE) {
+            return new Fetched(merged, new Total(TOTAL_UNKNOWN, false));
+        }
+        if (cached != null) {
+            return new Fetched(merged, new Total(cached, true));
+        }
+        if (countCache != null) {
+            long total = sum;
+            countCache.load(ms, cacheKey, () -> total);
+        }
+        return new Fetched(merged, new Total(sum, true));
+    }
+
+    /**
+     * 各分片的结果已经按order排好，用小顶堆做k路归并，只走到skip+take为止
+     * 不分页时take传Integer.MAX_VALUE，全部归并
+     */
+    public static List<Object> merge(Configuration configuration, List<List<Object>> parts, List<SqlRewriter.SortKey> order,
+                                     int skip, int take) {
+        PriorityQueue<MergeCursor> heap = new PriorityQueue<>(Math.max(1, parts.size()));
+        int rows = 0;
+        for (List<Object> part : parts) {
+            rows += part.size();
+            MergeCursor cursor = new MergeCursor(configuration, part, order);
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        List<Object> result = new ArrayList<>(Math.min(take, rows));
+        int position = 0;
+        while (!heap.isEmpty() && result.size() < take) {
+            MergeCursor cursor = heap.poll();
+            if (position++ >= skip) {
+                result.add(cursor.row);
+            }
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按列名从结果对象上取值，属性名按mapUnderscoreToCamelCase匹配；Map结果直接按列名取
+     */
+    public static Object columnValue(Configuration configuration, Object row, String column) {
+        if (row == null) {
+            return null;
+        }
+        MetaObject metaObject = configuration.newMetaObject(row);
+        String property = metaObject.findProperty(column, configuration.isMapUnderscoreToCamelCase());
+        if (property == null || !metaObject.hasGetter(property)) {
+            return metaObject.hasGetter(column) ? metaObject.getValue(column) : null;
+        }
+        return metaObject.getValue(property);
+    }
+
+    /**
+     * 打开下一页预取：返回第N页之后，在后台用单独的连接把第N+1页查出来，缓存ttlMillis
+     * @param threads 同时进行的预取数，队列也只有这么长，满了直接放弃这次预取
+     * @param poolBusy 返回true时说明连接池紧张，不预取
+     */
+    public synchronized void enablePrefetch(int threads, int cacheSize, long ttlMillis, BooleanSupplier poolBusy) {
+        if (prefetchPool != null) {
+            prefetchPool.shutdown();
+        }
+        AtomicInteger seq = new AtomicInteger();
+        prefetchPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads), r -> {
+                    Thread t = new Thread(r, "page-prefetch-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        prefetchPool.allowCoreThreadTimeOut(true);
+        prefetched = new LruCache<>(cacheSize, ttlMillis);
+        this.poolBusy = poolBusy;
+    }
+
+    /**
+     * offset分页的BoundSql：offset和条数都按参数绑定
+     */
+    public BoundSql offsetPageBoundSql(MappedStatement ms, BoundSql boundSql, SqlRewriter.Rewritten rewritten,
+                                       Object parameterObject, PageParam page) {
+        BoundSql pageBoundSql = newBoundSql(ms, boundSql, pageSql(rewritten, page), parameterObject, 2);
+        bind(ms, pageBoundSql, PAGE_OFFSET, Integer.class, page.offset());
+        // NONE模式多取一行判断有没有下一页
+        bind(ms, pageBoundSql, PAGE_SIZE, Integer.class, fetchSize(page));
+        return pageBoundSql;
+    }
+
+    // offset分页用的sql，深页能改写时用延迟关联，参数一样
+    public String pageSql(SqlRewriter.Rewritten rewritten, PageParam page) {
+        int minOffset = deferredJoinMinOffset;
+        if (minOffset > 0 && page.offset() >= minOffset && rewritten.deferredPageSql() != null) {
+            return rewritten.deferredPageSql();
+        }
+        return rewritten.pageSql();
+    }
+
+    // 合并到别的请求结果上、没有自己查库的次数
+    public long getSharedCount() {
+        return shared.sum();
+    }
+
+    public synchronized void shutdown() {
+        if (countPool != null) {
+            countPool.shutdownNow();
+            countPool = null;
+        }
+        if (prefetchPool != null) {
+            prefetchPool.shutdownNow();
+            prefetchPool = null;
+        }
+    }
+
+    public void setMetrics(PaginationMetrics metrics) {
+        this.metrics = metrics;
+        metrics.bindCountCache(countCache);
+        metrics.bindSingleFlight(this);
+        metrics.bindPrefetch(this);
+    }
+
+    public PaginationMetrics getMetrics() {
+        return metrics;
+    }
+
+    // 为null时不记录慢查询
+    public void setSlowQueryRecorder(SlowQueryRecorder slowQueryRecorder) {
+        this.slowQueryRecorder = slowQueryRecorder;
+    }
+
+    /**
+     * 分页数据查询结束后调用，记录指标；超过阈值的交给慢查询记录器
+     */
+    public void recordFetch(MappedStatement ms, BoundSql pageBoundSql, Object parameterObject, long nanos, long offset, Object result) {
+        metrics.forStatement(ms).recordFetch(nanos, offset, result instanceof List<?> list ? list.size() : 0);
+        SlowQueryRecorder recorder = slowQueryRecorder;
+        if (recorder != null && recorder.isSlow(nanos)) {
+            recorder.record(ms, pageBoundSql, parameterObject, pageBoundSql.getSql(), "fetch", nanos);
+        }
+    }
+
+    private void recordCount(MappedStatement ms, BoundSql boundSql, Object parameterObject, String countSql, long nanos) {
+        metrics.forStatement(ms).recordCount(nanos);
+        SlowQueryRecorder recorder = slowQueryRecorder;
+        if (recorder != null && recorder.isSlow(nanos)) {
+            recorder.record(ms, boundSql, parameterObject, countSql, "count", nanos);
+        }
+    }
+
+    public SqlRewriter getSqlRewriter() {
+        return sqlRewriter;
+    }
+
+    public CountCache getCountCache() {
+        return countCache;
+    }
+
+    // 写操作之后该namespace下缓存的count都不可信了，预取的页也一起清掉
+    public void onUpdate(MappedStatement ms) {
+        String namespace = CountCache.namespaceOf(ms);
+        invalidate(namespace);
+        Consumer<String> listener = updateListener;
+        if (listener != null) {
+            listener.accept(namespace);
+        }
+    }
+
+    /**
+     * 清掉namespace下缓存的count和预取的页
+     * 写语句执行完时事务还没提交，这期间别的请求可能又缓存上旧数据，事务结束后要再调一次
+     */
+    public void invalidate(String namespace) {
+        if (countCache != null) {
+            countCache.invalidate(namespace);
+        }
+        LruCache<FlightKey, Fetched> cache = prefetched;
+        if (cache != null) {
+            prefetchVersion.incrementAndGet();
+            cache.clear();
+        }
+    }
+
+    public long getPrefetchHits() {
+        LruCache<FlightKey, Fetched> cache = prefetched;
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    public long getPrefetchMisses() {
+        LruCache<FlightKey, Fetched> cache = prefetched;
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    /**
+     * 第N页返回之后调用：连接池不紧张、不在事务里、还有下一页时，后台预取第N+1页
+     * 预取失败或者被拒绝都不影响当前请求
+     */
+    public void prefetchNext(Executor executor, MappedStatement ms, Object parameterObject, RowBounds rowBounds,
+                             ResultHandler<?> resultHandler, BoundSql boundSql, SqlRewriter.Rewritten rewritten,
+                             PageParam page, Total total, boolean hasNext) throws SQLException {
+        ThreadPoolExecutor pool = prefetchPool;
+        LruCache<FlightKey, Fetched> cache = prefetched;
+        // 分片时后台预取要查所有分片，代价太大，不预取
+        if (pool == null || !hasNext || resultHandler != null || shardRouter != null || poolBusy.getAsBoolean()
+                || inTransaction(executor)) {
+            return;
+        }
+        PageParam next = new PageParam(page.getPageNum() + 1, page.getPageSize(), page.getCountMode());
+        BoundSql nextBoundSql = offsetPageBoundSql(ms, boundSql, rewritten, parameterObject, next);
+        CacheKey nextCacheKey = executor.createCacheKey(ms, parameterObject, rowBounds, nextBoundSql);
+        FlightKey key = new FlightKey(nextCacheKey, next.getCountMode());
+        if (cache.containsKey(key) || !prefetching.add(key)) {
+            return;
+        }
+        long version = prefetchVersion.get();
+        try {
+            pool.execute(taskDecorator.apply(() -> {
+                try {
+                    Object result = queryDetached(ms, parameterObject, rowBounds, nextCacheKey, nextBoundSql);
+                    // 同样的参数下一页的总数和这一页一样
+                    cache.put(key, new Fetched(result, total));
+                    if (prefetchVersion.get() != version) {
+                        cache.remove(key);
+                    }
+                } catch (SQLException | RuntimeException ignored) {
+                    // 预取失败就等用户真的翻页时再查
+                } finally {
+                    prefetching.remove(key);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            prefetching.remove(key);
+        }
+    }
+
+    // 后台线程没有请求的SqlSession，自己开一个自动提交的连接，用完关掉；不经过插件
+    private Object queryDetached(MappedStatement ms, Object parameterObject, RowBounds rowBounds,
+                                 CacheKey cacheKey, BoundSql boundSql) throws SQLException {
+        Configuration configuration = ms.getConfiguration();
+        Executor executor = new SimpleExecutor(configuration,
+                new JdbcTransaction(configuration.getEnvironment().getDataSource(), null, true));
+        try {
+            return executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+        } finally {
+            executor.close(false);
+        }
+    }
+
+    /**
+     * 用分页sql生成新的BoundSql，原来的参数和foreach之类的附加参数都带过去
+     * @param extra 之后还要bind的参数个数
+     */
+    public BoundSql newBoundSql(MappedStatement ms, BoundSql boundSql, String sql, Object parameterObject, int extra) {
+        List<ParameterMapping> origin = boundSql.getParameterMappings();
+        List<ParameterMapping> mappings = new ArrayList<>(origin.size() + extra);
+        mappings.addAll(origin);
+        BoundSql newBoundSql = new BoundSql(ms.getConfiguration(), sql, mappings, parameterObject);
+        for (ParameterMapping pm : origin) {
+            String prop = pm.getProperty();
+            if (boundSql.hasAdditionalParameter(prop)) {
+                newBoundSql.setAdditionalParameter(prop, boundSql.getAdditionalParameter(prop));
+            }
+        }
+        return newBoundSql;
+    }
+
+    /**
+     * 给sql里下一个?绑定一个附加参数，CacheKey也会带上这个值
+     */
+    public void bind(MappedStatement ms, BoundSql boundSql, String name, Class<?> javaType, Object value) {
+        ParameterMapping mapping = extraMappings.computeIfAbsent(name,
+                n -> new ParameterMapping.Builder(ms.getConfiguration(), n, javaType).build());
+        boundSql.getParameterMappings().add(mapping);
+        boundSql.setAdditionalParameter(name, value);
+    }
+
+    /**
+     * 按countMode开始count：ESTIMATED且是不带条件的单表查询时读表的行数估计，否则和精确count一样
+     */
+    public PendingCount startCount(Executor executor, MappedStatement ms, Object param, BoundSql boundSql,
+                                   CacheKey cacheKey, SqlRewriter.Rewritten rewritten, CountMode countMode) throws SQLException {
+        if (countMode == CountMode.NONE) {
+            return PendingCount.skipped();
+        }
+        if (countMode == CountMode.ESTIMATED && rewritten.countTable() != null && estimateSupported) {
+            Long estimate = estimateRows(executor.getTransaction().getConnection(), rewritten.countTable());
+            if (estimate != null) {
+                return PendingCount.estimated(estimate);
+            }
+        }
+        // 估算不了的退回精确count，count缓存命中时同样不用查库
+        return startCount(executor, ms, param, boundSql, cacheKey, rewritten.countSql());
+    }
+
+    /**
+     * 执行count+分页查询；有预取好的结果直接用，打开合并后相同的查询同一时刻只执行一次，跟随的请求拿到结果list的拷贝
+     * 事务里不合并：别的请求看不到本事务的写，本事务也不该读到别人的快照
+     * 命中预取和等第一个请求的结果都在取连接之前，跟随的请求等待时不占连接池的连接和bulkhead许可
+     */
+    public Fetched fetchShared(Executor executor, CacheKey pageCacheKey, PageParam page, ResultHandler<?> resultHandler,
+                               FetchTask task) throws SQLException {
+        long waitMillis = singleFlightWaitMillis;
+        if (waitMillis <= 0 && prefetched == null) {
+            return task.fetch();
+        }
+        if (resultHandler != null || inTransaction(executor)) {
+            return task.fetch();
+        }
+        FlightKey key = new FlightKey(pageCacheKey, page.getCountMode());
+        LruCache<FlightKey, Fetched> cache = prefetched;
+        if (cache != null) {
+            Fetched hit = cache.get(key);
+            if (hit != null) {
+                return hit.copy();
+            }
+        }
+        if (waitMillis <= 0) {
+            return task.fetch();
+        }
+        CompletableFuture<Fetched> flight = new CompletableFuture<>();
+        CompletableFuture<Fetched> leader = inFlight.putIfAbsent(key, flight);
+        if (leader == null) {
+            try {
+                Fetched fetched = task.fetch();
+                flight.complete(fetched);
+                // 共享出去的那份谁都不改，自己也拿拷贝
+                return fetched.copy();
+            } catch (SQLException | RuntimeException | Error e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, flight);
+            }
+        }
+        try {
+            Fetched fetched = leader.get(waitMillis, TimeUnit.MILLISECONDS);
+            shared.increment();
+            return fetched.copy();
+        } catch (TimeoutException | ExecutionException e) {
+            // 等太久或者第一个请求失败了，自己查
+            return task.fetch();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待相同分页查询的结果时被中断", e);
+        }
+    }
+
+    /**
+     * 在不在事务里：Spring管理的连接按当前线程有没有真正的事务判断，不用为了看autoCommit先取一个连接；
+     * 不经过Spring的SqlSession（benchmark、测试）只能看连接本身
+     */
+    private static boolean inTransaction(Executor executor) throws SQLException {
+        Transaction transaction = executor.getTransaction();
+        if (transaction instanceof SpringManagedTransaction) {
+            return TransactionSynchronizationManager.isActualTransactionActive();
+        }
+        return !transaction.getConnection().getAutoCommit();
+    }
+
+    // NONE模式多取一行，多出来的那行只用来判断有没有下一页
+    public int fetchSize(PageParam page) {
+        return page.getCountMode() == CountMode.NONE ? page.getPageSize() + 1 : page.getPageSize();
+    }
+
+    /**
+     * 去掉NONE模式多取的那一行；返回新的list，executor一级缓存里的原list不能改
+     */
+    public List<?> trimExtraRow(PageParam page, List<?> rows) {
+        if (page.getCountMode() == CountMode.NONE && rows.size() > page.getPageSize()) {
+            return new ArrayList<>(rows.subList(0, page.getPageSize()));
+        }
+        return rows;
+    }
+
+    /**
+     * 有没有下一页：NONE模式看有没有多取到一行，其它模式按total算，total未知时看这页是不是满的
+     * @param rows 分页sql实际查到的行数（trimExtraRow之前）
+     */
+    public boolean hasNext(PageParam page, Total total, int rows) {
+        if (page.getCountMode() == CountMode.NONE) {
+            return rows > page.getPageSize();
+        }
+        if (total.value() == TOTAL_UNKNOWN) {
+            return rows >= page.getPageSize();
+        }
+        return (long) page.offset() + rows < total.value();
+    }
+
+    /**
+     * 分页数据查完后取total；估算值至少是已经查到的行数
+     */
+    public Total resolveTotal(PendingCount pendingCount, PageParam page, int rows) throws SQLException {
+        long total = pendingCount.join();
+        boolean exact = pendingCount.isExact();
+        if (!exact && total != TOTAL_UNKNOWN) {
+            total = Math.max(total, (long) page.offset() + rows);
+        }
+        return new Total(total, exact);
+    }
+
+    // InnoDB的TABLE_ROWS是采样估计，和真实行数可能差几十个百分点，不需要精确总数的场景才用
+    private Long estimateRows(Connection connection, String table) {
+        String schema = null;
+        String name = table.replace("`", "");
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            schema = name.substring(0, dot);
+            name = name.substring(dot + 1);
+        }
+        String sql = "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = "
+                + (schema == null ? "DATABASE()" : "?") + " AND TABLE_NAME = ?";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            int i = 1;
+            if (schema != null) {
+                ps.setString(i++, schema);
+            }
+            ps.setString(i, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    long rows = rs.getLong(1);
+                    return rs.wasNull() ? null : rows;
+                }
+                return null;
+            }
+        } catch (SQLException e) {
+            estimateSupported = false;
+            return null;
+        }
+    }
+
+    /**
+     * 开始count，并行模式下立即返回，调用方查完分页数据后再join
+     */
+    public PendingCount startCount(Executor executor, MappedStatement ms, Object param, BoundSql boundSql,
+                                   CacheKey cacheKey, String countSql) throws SQLException {
+        if (countCache != null) {
+            Long cached = countCache.getIfPresent(ms, cacheKey);
+            if (cached != null) {
+                return new PendingCount(cached);
+            }
+        }
+        ThreadPoolExecutor pool = countPool;
+        // 在事务里时单独的连接看不到本事务未提交的数据，只能在同一个连接上串行count
+        if (pool != null && !inTransaction(executor)) {
+            DataSource dataSource = ms.getConfiguration().getEnvironment().getDataSource();
+            CountTask task = new CountTask(dataSource, ms, param, boundSql, cacheKey, countSql);
+            try {
+                // 分页作用域显式带到count线程上，执行完恢复，线程池里的线程不会残留
+                FutureTask<Long> future = new FutureTask<>(PageScope.wrap(task));
+                pool.execute(taskDecorator.apply(future));
+                return new PendingCount(future, task, countTimeoutMillis);
+            } catch (RejectedExecutionException e) {
+                // 线程池满了就退回串行
+            }
+        }
+        Connection connection = executor.getTransaction().getConnection();
+        return new PendingCount(load(ms, cacheKey, () -> queryCount(connection, ms, param, boundSql, countSql)));
+    }
+
+    private long load(MappedStatement ms, CacheKey cacheKey, CountCache.CountLoader loader) throws SQLException {
+        return countCache == null ? loader.load() : countCache.load(ms, cacheKey, loader);
+    }
+
+    private long queryCount(Connection connection, MappedStatement ms, Object param, BoundSql boundSql, String countSql) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(countSql)) {
+            return executeCount(preparedStatement, ms, param, boundSql, countSql);
+        }
+    }
+
+    private long executeCount(PreparedStatement preparedStatement, MappedStatement ms, Object param, BoundSql boundSql, String countSql) throws SQLException {
+        ParameterHandler ph = ms.getConfiguration().newParameterHandler(ms, param, boundSql);
+        ph.setParameters(preparedStatement);
+        long start = System.nanoTime();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0L;
+        } finally {
+            recordCount(ms, boundSql, param, countSql, System.nanoTime() - start);
+        }
+    }
+
+    private class CountTask implements Callable<Long> {
+        private final DataSource dataSource;
+        private final MappedStatement ms;
+        private final Object param;
+        private final BoundSql boundSql;
+        private final CacheKey cacheKey;
+        private final String countSql;
+        private volatile PreparedStatement statement;
+        private volatile boolean cancelled;
+
+        CountTask(DataSource dataSource, MappedStatement ms, Object param, BoundSql boundSql, CacheKey cacheKey, String countSql) {
+            this.dataSource = dataSource;
+            this.ms = ms;
+            this.param = param;
+            this.boundSql = boundSql;
+            this.cacheKey = cacheKey;
+            this.countSql = countSql;
+        }
+
+        @Override
+        public Long call() throws SQLException {
+            return load(ms, cacheKey, () -> {
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement ps = connection.prepareStatement(countSql)) {
+                    statement = ps;
+                    if (cancelled) {
+                        throw new SQLException("count已超时取消");
+                    }
+                    return executeCount(ps, ms, param, boundSql, countSql);
+                }
+            });
+        }
+
+        // 超时后取消数据库里正在执行的count，避免一直占着连接
+        void cancel() {
+            cancelled = true;
+            PreparedStatement ps = statement;
+            if (ps != null) {
+                try {
+                    ps.cancel();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface FetchTask {
+        Fetched fetch() throws SQLException;
+    }
+
+    /**
+     * 一次count+分页查询的结果，合并时在请求之间共享
+     * @param result executor返回的原始结果，NONE模式下还带着多取的那一行
+     */
+    public record Fetched(Object result, Total total) {
+        // 跟随的请求各拿一份list，互相修改不影响
+        Fetched copy() {
+            return result instanceof List<?> list ? new Fetched(new ArrayList<>(list), total) : this;
+        }
+    }
+
+    private record FlightKey(CacheKey pageCacheKey, CountMode countMode) {
+    }
+
+    /**
+     * @param value 总数，TOTAL_UNKNOWN表示未知
+     * @param exact false表示value是估算值或未知
+     */
+    public record Total(long value, boolean exact) {
+    }
+
+    private record ShardPage(List<Object> rows, long total) {
+    }
+
+    // 归并时每个分片的读取位置，排序值取一次缓存下来
+    private static class MergeCursor implements Comparable<MergeCursor> {
+        private final Configuration configuration;
+        private final Iterator<Object> rows;
+        private final List<SqlRewriter.SortKey> order;
+        private final Object[] values;
+        private Object row;
+
+        MergeCursor(Configuration configuration, List<Object> rows, List<SqlRewriter.SortKey> order) {
+            this.configuration = configuration;
+            this.rows = rows.iterator();
+            this.order = order;
+            this.values = new Object[order.size()];
+        }
+
+        boolean advance() {
+            if (!rows.hasNext()) {
+                return false;
+            }
+            row = rows.next();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = columnValue(configuration, row, order.get(i).column());
+            }
+            return true;
+        }
+
+        @Override
+        public int compareTo(MergeCursor other) {
+            for (int i = 0; i < values.length; i++) {
+                int c = compareValues(values[i], other.values[i]);
+                if (c != 0) {
+                    return order.get(i).desc() ? -c : c;
+                }
+            }
+            return 0;
+        }
+
+        // 和MySQL一样null排在升序的最前面；字符串按默认排序规则不区分大小写比较
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static int compareValues(Object a, Object b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            if (a instanceof String x && b instanceof String y) {
+                return String.CASE_INSENSITIVE_ORDER.compare(x, y);
+            }
+            if (a instanceof Number x && b instanceof Number y && a.getClass() != b.getClass()) {
+                return new BigDecimal(x.toString()).compareTo(new BigDecimal(y.toString()));
+            }
+            return ((Comparable) a).compareTo(b);
+        }
+    }
+
+    public static class PendingCount {
+        private final Future<Long> future;
+        private final CountTask task;
+        private final long timeoutMillis;
+        private final boolean estimated;
+        private volatile boolean unknown;
+
+        PendingCount(long total) {
+            this(total, false);
+        }
+
+        private PendingCount(long total, boolean estimated) {
+            this.future = CompletableFuture.completedFuture(total);
+            this.task = null;
+            this.timeoutMillis = 0;
+            this.estimated = estimated;
+        }
+
+        PendingCount(Future<Long> future, CountTask task, long timeoutMillis) {
+            this.future = future;
+            this.task = task;
+            this.timeoutMillis = timeoutMillis;
+            this.estimated = false;
+        }
+
+        static PendingCount estimated(long total) {
+            return new PendingCount(total, true);
+        }
+
+        // NONE模式：不count，total未知
+        static PendingCount skipped() {
+            PendingCount pendingCount = new PendingCount(TOTAL_UNKNOWN, false);
+            pendingCount.unknown = true;
+            return pendingCount;
+        }
+
+        // join之后调用：估算值或者超时都不是精确总数
+        public boolean isExact() {
+            return !estimated && !unknown;
+        }
+
+        /**
+         * 等count结果，超时返回TOTAL_UNKNOWN
+         */
+        public long join() throws SQLException {
+            try {
+                return task == null ? future.get() : future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 不中断count线程，直接cancel语句，中断会让驱动把连接关掉
+                task.cancel();
+                future.cancel(false);
+                unknown = true;
+                return TOTAL_UNKNOWN;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (task != null) {
+                    task.cancel();
+                }
+                future.cancel(false);
+                unknown = true;
+                return TOTAL_UNKNOWN;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException sqlException) {
+                    throw sqlException;
+                }
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new SQLException(cause);
+            }
+        }
+    }
+}
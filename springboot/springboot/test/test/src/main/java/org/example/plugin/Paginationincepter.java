@@ -1,26 +1,17 @@
 package org.example.plugin;
 
 import org.apache.ibatis.cache.CacheKey;
-import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
-import org.apache.ibatis.mapping.ParameterMapping;
-import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.plugin.Intercepts;
 import org.apache.ibatis.plugin.Invocation;
 import org.apache.ibatis.plugin.Signature;
-import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.executor.Executor;
-import org.springframework.web.servlet.handler.MappedInterceptor;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Locale;
+import java.util.List;
 
 
 /**
@@ -31,118 +22,68 @@ import java.util.Locale;
  */
 @Intercepts({
         @Signature(type = Executor.class , method = "query",args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
-        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class})
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
 })
 
 public class Paginationincepter implements Interceptor {
+    private final PaginationSupport support;
+
+    public Paginationincepter() {
+        this(new PaginationSupport());
+    }
+
+    // count缓存、sql改写、并行count都在support里，两个插件共用
+    public Paginationincepter(PaginationSupport support) {
+        this.support = support;
+    }
+
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
-        PageParam page= PaginationContext.getPageHolder();
-        if(page == null){
+        if("update".equals(invocation.getMethod().getName())){
+            // 写操作之后该namespace下缓存的count都不可信了
+            Object result = invocation.proceed();
+            support.onUpdate((MappedStatement) invocation.getArgs()[0]);
+            return result;
+        }
+        // 作用域里只有第一条查询分页，取走之后同一线程后面的查询不受影响
+        PageScope scope = PageScope.take();
+        if(scope == null){
             return invocation.proceed();
         }
+        PageParam page = scope.getPage();
         Object[] args = invocation.getArgs();
         MappedStatement ms = (MappedStatement) args[0];
         Object parameterObject = args[1];
         RowBounds rowBounds = (RowBounds) args[2];
         ResultHandler<?> resultHandler = (ResultHandler<?>) args[3];
-        CacheKey cacheKey;
-        BoundSql boundSql;
         Executor executor = (Executor) invocation.getTarget();
-        if(args.length==4){
-             boundSql = ms.getBoundSql(parameterObject);
-             cacheKey = executor.createCacheKey(ms, parameterObject, rowBounds, boundSql);
-        }else {
-            boundSql = (BoundSql) args[4];
-            cacheKey = (CacheKey) args[5];
-        }
-        String originSql = boundSql.getSql().trim();// trim()方法为去除前后空格
-        originSql = originSql.replaceAll(";\\s*$", "");
-        String countSql = "select count(*) from("+ stripOderby(originSql)+") as total_query";
-        long total = queryCount(executor,ms,parameterObject,boundSql,countSql);
-        PaginationContext.setTotalHolder(total);
-
-        String pagesql=originSql + " LIMIT "+page.offset()+","+page.getPageSize();
-        BoundSql newBoundsql = new BoundSql(ms.getConfiguration(),pagesql,boundSql.getParameterMappings(),parameterObject);
-
-        for(ParameterMapping pm : boundSql.getParameterMappings()){
-            String prop = pm.getProperty();
-            if(boundSql.hasAdditionalParameter(prop)){
-                newBoundsql.setAdditionalParameter(prop,boundSql.getAdditionalParameter(prop));
-            }
-        }
-        // 虽然已经有新的boundsql，但是mappstament其他属性仍然需要，所以这里需要copy一下
-        MappedStatement newMs = copyMappedStatement(ms,new BoundSqlSource(newBoundsql));
-        // 重新更新cachekey，否则会命中错误缓存
-        CacheKey newcacheKey = executor.createCacheKey(newMs, parameterObject, rowBounds, newBoundsql);
-        System.out.println(newMs.getBoundSql(parameterObject).getSql().trim());
-
-        return executor.query(newMs,parameterObject,rowBounds,resultHandler);
-    }
-
-    private MappedStatement copyMappedStatement(MappedStatement ms, BoundSqlSource boundSqlSource) {
-        MappedStatement.Builder builder = new MappedStatement.Builder(ms.getConfiguration(), ms.getId(),boundSqlSource,ms.getSqlCommandType())
-                .resource(ms.getResource())
-                .fetchSize(ms.getFetchSize())
-                .statementType(ms.getStatementType())
-                .keyGenerator(ms.getKeyGenerator())
-                .timeout(ms.getTimeout())
-                .parameterMap(ms.getParameterMap())
-                .resultMaps(ms.getResultMaps())
-                .resultSetType(ms.getResultSetType())
-                .cache(ms.getCache())
-                .flushCacheRequired(ms.isFlushCacheRequired())
-                .useCache(ms.isUseCache());
-        if(ms.getKeyProperties()!=null&&ms.getKeyProperties().length>0)
-            builder.keyProperty(String.join(",", ms.getKeyProperties()));
-
-        return builder.build();
-
-
-
-    }
-
-    private String stripOderby(String sql){
-        String lower = sql.toLowerCase(Locale.ROOT);
-        int idx = lower.lastIndexOf("order by");
-        return (idx > -1)?sql.substring(0,idx) : sql;
-    }
-    private long queryCount(Executor executor, MappedStatement ms, Object param, BoundSql boundSql, String countSql) throws SQLException {
-        Configuration configuration = ms.getConfiguration();
-        Connection connection = executor.getTransaction().getConnection();
-        try (
-            PreparedStatement preparedStatement = connection.prepareStatement(countSql)){
-            ParameterHandler ph = configuration.newParameterHandler(ms, param, boundSql);
-            ph.setParameters(preparedStatement);
-            System.out.println(boundSql.getSql().trim());
-
-            try (ResultSet resultSet = preparedStatement.executeQuery()){
-                return resultSet.next() ? resultSet.getLong(1) : 0L;
-            }
-
-        }
-    }
-    private static  class  BoundSqlSource implements SqlSource{
-        private final BoundSql boundSql;
-
-        public BoundSqlSource(BoundSql boundSql) {
-            this.boundSql = boundSql;
-        }
-
-        @Override
-        public BoundSql getBoundSql(Object parameterObject) {
-            return boundSql;
-        }
-    }
-
+        BoundSql boundSql = args.length == 4 ? ms.getBoundSql(parameterObject) : (BoundSql) args[4];
+        CacheKey cacheKey = args.length == 4 ? executor.createCacheKey(ms, parameterObject, rowBounds, boundSql) : (CacheKey) args[5];
+        // 改写结果按statement id + sql缓存，同样的sql只解析一次
+        SqlRewriter.Rewritten rewritten = support.getSqlRewriter().rewrite(ms, boundSql.getSql());
+
+        // limit按参数绑定，sql模板不变，驱动和服务端都能复用预编译语句
+        BoundSql pageBoundSql = support.offsetPageBoundSql(ms,boundSql,rewritten,parameterObject,page);
+        // 直接把新的boundsql传给executor，不用再copy一份mappedstatement；cachekey带上了分页参数，不会命中错误缓存
+        CacheKey pageCacheKey = executor.createCacheKey(ms, parameterObject, rowBounds, pageBoundSql);
+
+        // 同样的分页查询同一时刻只查一次库，其余请求等它的结果
+        PaginationSupport.Fetched fetched = support.fetchShared(executor, pageCacheKey, page, resultHandler, () -> {
+            // 并行模式下count在另一个连接上跑，和下面的分页查询同时进行；ESTIMATED模式可能直接用表的行数估计
+            PaginationSupport.PendingCount pendingCount = support.startCount(executor,ms,parameterObject,boundSql,cacheKey,rewritten,page.getCountMode());
+            long start = System.nanoTime();
+            Object result = executor.query(ms,parameterObject,rowBounds,resultHandler,pageCacheKey,pageBoundSql);
+            support.recordFetch(ms, pageBoundSql, parameterObject, System.nanoTime() - start, page.offset(), result);
+            return new PaginationSupport.Fetched(result, support.resolveTotal(pendingCount, page, result instanceof List<?> list ? list.size() : 0));
+        });
+        Object query = fetched.result();
+        int rows = query instanceof List<?> list ? list.size() : 0;
+        PaginationSupport.Total total = fetched.total();
+        boolean hasNext = support.hasNext(page, total, rows);
+        scope.complete(total.value(), total.exact(), hasNext);
+        // 打开预取时后台把下一页先查好
+        support.prefetchNext(executor, ms, parameterObject, rowBounds, resultHandler, boundSql, rewritten, page, total, hasNext);
+        return query instanceof List<?> list ? support.trimExtraRow(page, list) : query;
     }
-
-
-
-
-
-
-
-
-
-
+}
@@ -0,0 +1,252 @@
+package org.example.plugin;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/9/4 21:33
+ * @school hnist
+ */
+public class SlowQueryRecorder {
+    private final long thresholdNanos;
+    private final int explainTop;
+    private final BlockingQueue<Pending> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+
+    // 下面的字段只有worker线程写，读的时候加锁拷贝
+    private final SlowQuery[] ring;
+    private int next;
+    private long recorded;
+    private final Map<String, Offender> offenders = new HashMap<>();
+
+    /**
+     * @param thresholdMillis 超过这个耗时才记录
+     * @param capacity 环形缓冲区大小，也是待处理队列的大小，满了直接丢弃
+     * @param explainTop 按最大耗时排前几的sql执行一次EXPLAIN并保存执行计划
+     */
+    public SlowQueryRecorder(long thresholdMillis, int capacity, int explainTop) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.explainTop = explainTop;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.ring = new SlowQuery[capacity];
+        this.worker = new Thread(this::drain, "slow-query-recorder");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * 只在慢查询时调用：参数在当前线程取出来，其余的交给后台线程，不阻塞请求
+     */
+    public void record(MappedStatement ms, BoundSql boundSql, Object parameterObject, String sql, String kind, long nanos) {
+        Pending pending = new Pending(ms.getConfiguration().getEnvironment().getDataSource(),
+                new SlowQuery(ms.getId(), kind, sql, parameters(ms.getConfiguration(), boundSql, parameterObject),
+                        TimeUnit.NANOSECONDS.toMillis(nanos), System.currentTimeMillis()));
+        if (!queue.offer(pending)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public void shutdown() {
+        worker.interrupt();
+    }
+
+    /**
+     * 最近的慢查询，新的在前
+     */
+    public synchronized List<SlowQuery> recent() {
+        List<SlowQuery> list = new ArrayList<>(ring.length);
+        for (int i = 1; i <= ring.length; i++) {
+            SlowQuery query = ring[(next - i + ring.length) % ring.length];
+            if (query == null) {
+                break;
+            }
+            list.add(query);
+        }
+        return list;
+    }
+
+    /**
+     * 按最大耗时排序的sql，前explainTop条带执行计划
+     */
+    public synchronized List<Offender> worst() {
+        List<Offender> list = new ArrayList<>(offenders.size());
+        for (Offender offender : offenders.values()) {
+            list.add(offender.copy());
+        }
+        list.sort(Comparator.comparingLong(Offender::getMaxMillis).reversed());
+        return list;
+    }
+
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Pending pending;
+            try {
+                pending = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Offender needsPlan = add(pending.query());
+            if (needsPlan != null) {
+                List<Map<String, Object>> plan = explain(pending.dataSource(), pending.query());
+                synchronized (this) {
+                    needsPlan.plan = plan;
+                }
+            }
+        }
+    }
+
+    // 返回需要补执行计划的那条
+    private synchronized Offender add(SlowQuery query) {
+        ring[next] = query;
+        next = (next + 1) % ring.length;
+        recorded++;
+        Offender offender = offenders.computeIfAbsent(query.sql(), sql -> new Offender(query.statementId(), query.kind(), sql));
+        offender.count++;
+        offender.maxMillis = Math.max(offender.maxMillis, query.durationMillis());
+        offender.totalMillis += query.durationMillis();
+        if (offenders.size() > explainTop) {
+            // 只保留最慢的explainTop条，其余的丢掉
+            Offender fastest = Collections.min(offenders.values(), Comparator.comparingLong(Offender::getMaxMillis));
+            offenders.remove(fastest.sql);
+        }
+        if (offenders.get(query.sql()) == offender && !offender.explained) {
+            offender.explained = true;
+            return offender;
+        }
+        return null;
+    }
+
+    private List<Map<String, Object>> explain(DataSource dataSource, SlowQuery query) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement("EXPLAIN " + query.sql())) {
+            List<Object> parameters = query.parameterValues();
+            for (int i = 0; i < parameters.size(); i++) {
+                ps.setObject(i + 1, parameters.get(i));
+            }
+            List<Map<String, Object>> rows = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        row.put(meta.getColumnLabel(i), rs.getObject(i));
+                    }
+                    rows.add(row);
+                }
+            }
+            return rows;
+        } catch (SQLException e) {
+            return List.of(Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    // 和DefaultParameterHandler取参数的方式一样
+    private static List<Object> parameters(Configuration configuration, BoundSql boundSql, Object parameterObject) {
+        List<ParameterMapping> mappings = boundSql.getParameterMappings();
+        List<Object> values = new ArrayList<>(mappings.size());
+        MetaObject metaObject = null;
+        for (ParameterMapping mapping : mappings) {
+            if (mapping.getMode() == ParameterMode.OUT) {
+                continue;
+            }
+            String property = mapping.getProperty();
+            Object value;
+            if (boundSql.hasAdditionalParameter(property)) {
+                value = boundSql.getAdditionalParameter(property);
+            } else if (parameterObject == null) {
+                value = null;
+            } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+                value = parameterObject;
+            } else {
+                if (metaObject == null) {
+                    metaObject = configuration.newMetaObject(parameterObject);
+                }
+                value = metaObject.getValue(property);
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    private record Pending(DataSource dataSource, SlowQuery query) {
+    }
+
+    /**
+     * @param kind count 或 fetch
+     */
+    public record SlowQuery(String statementId, String kind, String sql, List<Object> parameterValues,
+                            long durationMillis, long timestamp) {
+    }
+
+    public static class Offender {
+        private final String statementId;
+        private final String kind;
+        private final String sql;
+        private long count;
+        private long maxMillis;
+        private long totalMillis;
+        private boolean explained;
+        private List<Map<String, Object>> plan;
+
+        Offender(String statementId, String kind, String sql) {
+            this.statementId = statementId;
+            this.kind = kind;
+            this.sql = sql;
+        }
+
+        private Offender copy() {
+            Offender copy = new Offender(statementId, kind, sql);
+            copy.count = count;
+            copy.maxMillis = maxMillis;
+            copy.totalMillis = totalMillis;
+            copy.explained = explained;
+            copy.plan = plan;
+            return copy;
+        }
+
+        public String getStatementId() { return statementId; }
+        public String getKind() { return kind; }
+        public String getSql() { return sql; }
+        public long getCount() { return count; }
+        public long getMaxMillis() { return maxMillis; }
+        public long getTotalMillis() { return totalMillis; }
+        public List<Map<String, Object>> getPlan() { return plan; }
+    }
+}
@@ -0,0 +1,433 @@
+package org.example.plugin;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.AllTableColumns;
+import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.ParenthesedSelect;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SelectItem;
+import org.apache.ibatis.mapping.MappedStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/8/26 20:14
+ * @school hnist
+ */
+public class SqlRewriter {
+    private static final Pattern TRAILING_SEMICOLON = Pattern.compile(";\\s*$");
+    private static final Pattern AGGREGATE = Pattern.compile(
+            "\\b(COUNT|SUM|MAX|MIN|AVG|GROUP_CONCAT|BIT_AND|BIT_OR|BIT_XOR|STD|STDDEV|STDDEV_POP|STDDEV_SAMP|VARIANCE|VAR_POP|VAR_SAMP|JSON_ARRAYAGG|JSON_OBJECTAGG)\\s*\\(",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern ORDER_BY = Pattern.compile("\\bORDER\\s+BY\\b", Pattern.CASE_INSENSITIVE);
+
+    private final int maxSize;
+    // 被left join的表按这些列等值关联时，最多匹配一行，不会改变行数
+    private final Set<String> uniqueKeys;
+    // 延迟关联时先按它分页再join回原表
+    private final String primaryKey;
+    private final ConcurrentMap<String, Rewritten> cache = new ConcurrentHashMap<>();
+
+    public SqlRewriter() {
+        this(1024, Collections.singleton("id"));
+    }
+
+    public SqlRewriter(int maxSize, Set<String> uniqueKeys) {
+        this(maxSize, uniqueKeys, "id");
+    }
+
+    public SqlRewriter(int maxSize, Set<String> uniqueKeys, String primaryKey) {
+        this.maxSize = maxSize;
+        this.uniqueKeys = uniqueKeys;
+        this.primaryKey = primaryKey;
+    }
+
+    /**
+     * 同一个statement同一段sql只解析一次
+     */
+    public Rewritten rewrite(MappedStatement ms, String sql) {
+        String key = ms.getId() + '\n' + sql;
+        Rewritten rewritten = cache.get(key);
+        if (rewritten == null) {
+            if (cache.size() >= maxSize) {
+                // 动态sql组合太多时整体清掉，避免无限增长
+                cache.clear();
+            }
+            rewritten = parse(sql);
+            cache.put(key, rewritten);
+        }
+        return rewritten;
+    }
+
+    Rewritten parse(String originSql) {
+        String sql = TRAILING_SEMICOLON.matcher(originSql.trim()).replaceAll("");
+        Statement statement;
+        try {
+            statement = CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            // 解析不了就整体包一层，order by也不去掉；有没有排序只能按文本判断，子查询里的也算
+            return new Rewritten(sql, wrapCount(sql), sql, pageSql(sql), null, null, null, null,
+                    ORDER_BY.matcher(sql).find());
+        }
+        if (!(statement instanceof Select select)) {
+            return new Rewritten(sql, wrapCount(sql), sql, pageSql(sql), null, null, null, null, false);
+        }
+        boolean ordered = select.getOrderByElements() != null && !select.getOrderByElements().isEmpty();
+        // 下面两步会改select，延迟关联和分片归并的sql要先从原样的语法树生成
+        String deferredPageSql = deferredPageSql(select);
+        List<SortKey> mergeOrder = mergeOrder(select);
+        String mergeSql = mergeOrder != null ? mergeSql(select, sql) : null;
+        String unordered = stripOrderBy(select) ? select.toString() : sql;
+        String countSql = simpleCount(select);
+        String countTable = countSql != null ? countTable((PlainSelect) select) : null;
+        return new Rewritten(sql, countSql != null ? countSql : wrapCount(unordered), unordered, pageSql(sql), countTable,
+                deferredPageSql, mergeSql, mergeOrder, ordered);
+    }
+
+    /**
+     * 分片归并用的排序：每个分片按它排好序，归并时按结果对象上的同名属性比较
+     * 只处理单表、不带聚合/distinct/limit、order by是普通列的查询；排序里没有主键时补在最后，保证全局顺序唯一
+     */
+    private List<SortKey> mergeOrder(Select select) {
+        if (!(select instanceof PlainSelect plain) || !(plain.getFromItem() instanceof Table)) {
+            return null;
+        }
+        if (plain.getJoins() != null || plain.getWithItemsList() != null || plain.getDistinct() != null
+                || plain.getGroupBy() != null || plain.getHaving() != null || plain.getLimit() != null
+                || plain.getOffset() != null || plain.getFetch() != null || plain.getTop() != null
+                || plain.getIntoTables() != null || plain.getForMode() != null) {
+            return null;
+        }
+        String selectItems = plain.getSelectItems().toString();
+        // 聚合和distinct在各分片上分别算出来合不到一起
+        if (AGGREGATE.matcher(selectItems).find()) {
+            return null;
+        }
+        boolean allColumns = false;
+        Set<String> selected = new HashSet<>();
+        for (SelectItem<?> item : plain.getSelectItems()) {
+            Expression expression = item.getExpression();
+            if (expression instanceof AllColumns || expression instanceof AllTableColumns) {
+                allColumns = true;
+            } else if (item.getAlias() != null) {
+                selected.add(item.getAlias().getName().toLowerCase(Locale.ROOT));
+            } else if (expression instanceof Column column) {
+                selected.add(column.getColumnName().toLowerCase(Locale.ROOT));
+            }
+        }
+        List<SortKey> keys = new ArrayList<>();
+        boolean unique = false;
+        List<OrderByElement> orderBy = plain.getOrderByElements();
+        if (orderBy != null) {
+            for (OrderByElement element : orderBy) {
+                if (!(element.getExpression() instanceof Column column) || element.getNullOrdering() != null) {
+                    return null;
+                }
+                keys.add(new SortKey(column.getColumnName(), element.isAscDescPresent() && !element.isAsc()));
+                unique |= primaryKey.equalsIgnoreCase(column.getColumnName());
+            }
+        }
+        if (!unique) {
+            keys.add(new SortKey(primaryKey, false));
+        }
+        // 归并时要从结果里取排序列的值
+        for (SortKey key : keys) {
+            if (!allColumns && !selected.contains(key.column().toLowerCase(Locale.ROOT))) {
+                return null;
+            }
+        }
+        return keys;
+    }
+
+    // 原sql末尾补上主键排序，和mergeOrder对应
+    private String mergeSql(Select select, String sql) {
+        List<OrderByElement> orderBy = select.getOrderByElements();
+        for (OrderByElement element : orderBy == null ? List.<OrderByElement>of() : orderBy) {
+            if (primaryKey.equalsIgnoreCase(((Column) element.getExpression()).getColumnName())) {
+                return sql;
+            }
+        }
+        return sql + (orderBy == null || orderBy.isEmpty() ? " ORDER BY " : ", ") + primaryKey;
+    }
+
+    /**
+     * 深分页的延迟关联：子查询只按主键排序分页（走覆盖索引，跳过的行不回表），再join回原表取这一页的整行
+     * 只处理单表、order by是普通列且包含主键的查询，这样两种写法的行和顺序完全一致；参数顺序和pageSql相同
+     */
+    private String deferredPageSql(Select select) {
+        if (!(select instanceof PlainSelect plain) || !(plain.getFromItem() instanceof Table table)) {
+            return null;
+        }
+        if (plain.getJoins() != null || plain.getWithItemsList() != null || plain.getDistinct() != null
+                || plain.getGroupBy() != null || plain.getHaving() != null || plain.getLimit() != null
+                || plain.getOffset() != null || plain.getFetch() != null || plain.getTop() != null
+                || plain.getIntoTables() != null || plain.getForMode() != null) {
+            return null;
+        }
+        String name = table.getAlias() != null ? table.getAlias().getName() : table.getName();
+        List<OrderByElement> orderBy = plain.getOrderByElements();
+        if (orderBy == null || orderBy.isEmpty()) {
+            // 没有order by时原查询的顺序本身就不确定，没法保证一致
+            return null;
+        }
+        Set<String> aliases = new HashSet<>();
+        for (SelectItem<?> item : plain.getSelectItems()) {
+            if (item.getAlias() != null) {
+                aliases.add(item.getAlias().getName().toLowerCase(Locale.ROOT));
+            }
+        }
+        List<String> innerOrder = new ArrayList<>(orderBy.size());
+        List<String> outerOrder = new ArrayList<>(orderBy.size());
+        boolean unique = false;
+        for (OrderByElement element : orderBy) {
+            // 按select里的别名排序时不能加表名限定
+            if (!(element.getExpression() instanceof Column column) || element.getNullOrdering() != null
+                    || !ownedBy(column, name) || aliases.contains(column.getColumnName().toLowerCase(Locale.ROOT))) {
+                return null;
+            }
+            unique |= primaryKey.equalsIgnoreCase(column.getColumnName());
+            innerOrder.add(element.toString());
+            outerOrder.add(qualify(column, name) + (element.isAscDescPresent() ? (element.isAsc() ? " ASC" : " DESC") : ""));
+        }
+        if (!unique) {
+            // 排序值相同的行谁先谁后不确定，两种执行计划可能给出不同的顺序
+            return null;
+        }
+        List<String> items = new ArrayList<>(plain.getSelectItems().size());
+        for (SelectItem<?> item : plain.getSelectItems()) {
+            Expression expression = item.getExpression();
+            if (expression instanceof AllTableColumns) {
+                items.add(expression.toString());
+            } else if (expression instanceof AllColumns) {
+                // 外层还有子查询的id列，*要限定成原表的列
+                items.add(name + ".*");
+            } else if (expression instanceof Column column && ownedBy(column, name)) {
+                items.add(qualify(column, name) + (item.getAlias() != null ? item.getAlias().toString() : ""));
+            } else {
+                return null;
+            }
+        }
+        StringBuilder inner = new StringBuilder("SELECT ").append(name).append('.').append(primaryKey)
+                .append(" FROM ").append(table);
+        if (plain.getWhere() != null) {
+            inner.append(" WHERE ").append(plain.getWhere());
+        }
+        inner.append(" ORDER BY ").append(String.join(", ", innerOrder)).append(" LIMIT ?, ?");
+        return "SELECT " + String.join(", ", items) + " FROM " + table
+                + " INNER JOIN (" + inner + ") AS deferred_page ON " + name + '.' + primaryKey + " = deferred_page." + primaryKey
+                + " ORDER BY " + String.join(", ", outerOrder);
+    }
+
+    private static boolean ownedBy(Column column, String name) {
+        Table owner = column.getTable();
+        return owner == null || owner.getName() == null || owner.getName().equalsIgnoreCase(name);
+    }
+
+    private static String qualify(Column column, String name) {
+        return name + '.' + column.getColumnName();
+    }
+
+    // 去掉多余join之后只剩一张表、也没有where时，行数就是整张表的行数
+    private String countTable(PlainSelect plain) {
+        if (plain.getWhere() != null || plain.getJoins() != null || !(plain.getFromItem() instanceof Table table)) {
+            return null;
+        }
+        return table.getFullyQualifiedName();
+    }
+
+    private String pageSql(String sql) {
+        return sql + " LIMIT ?, ?";
+    }
+
+    private String wrapCount(String sql) {
+        return "select count(*) from(" + sql + ") as total_query";
+    }
+
+    // 外层还有limit时order by决定取哪些行，不能去；order by里有参数去掉会让参数错位
+    private boolean stripOrderBy(Select select) {
+        List<OrderByElement> orderBy = select.getOrderByElements();
+        if (orderBy == null || orderBy.isEmpty()) {
+            return false;
+        }
+        if (select.getLimit() != null || select.getOffset() != null || select.getFetch() != null) {
+            return false;
+        }
+        if (hasParameter(orderBy.toString())) {
+            return false;
+        }
+        select.setOrderByElements(null);
+        return true;
+    }
+
+    // 单表（或者只有可去掉的left join）的简单查询直接改成 select count(*) ... where ...
+    private String simpleCount(Select select) {
+        if (!(select instanceof PlainSelect plain)) {
+            return null;
+        }
+        if (plain.getWithItemsList() != null || plain.getDistinct() != null || plain.getGroupBy() != null
+                || plain.getHaving() != null || plain.getLimit() != null || plain.getOffset() != null
+                || plain.getFetch() != null || plain.getTop() != null || plain.getOrderByElements() != null
+                || plain.getIntoTables() != null || plain.getForMode() != null) {
+            return null;
+        }
+        String selectItems = plain.getSelectItems().toString();
+        // select列表里的参数去掉会错位，聚合函数会让结果只有一行
+        if (hasParameter(selectItems) || AGGREGATE.matcher(selectItems).find()) {
+            return null;
+        }
+        List<Join> joins = plain.getJoins();
+        if (joins != null && !joins.isEmpty()) {
+            List<Join> kept = removeJoins(plain, joins);
+            plain.setJoins(kept.isEmpty() ? null : kept);
+        }
+        List<SelectItem<?>> count = new ArrayList<>(1);
+        count.add(new SelectItem<>(new Function().withName("COUNT").withParameters(new AllColumns())));
+        plain.setSelectItems(count);
+        return plain.toString();
+    }
+
+    // 其它join原样保留，count(*)的行数和原查询一致
+    private List<Join> removeJoins(PlainSelect plain, List<Join> joins) {
+        List<Join> kept = new ArrayList<>(joins);
+        Iterator<Join> it = kept.iterator();
+        while (it.hasNext()) {
+            if (canRemove(plain, kept, it.next())) {
+                it.remove();
+            }
+        }
+        return kept;
+    }
+
+    private boolean canRemove(PlainSelect plain, List<Join> joins, Join join) {
+        if (!join.isLeft() || join.isNatural() || !(join.getRightItem() instanceof Table table)) {
+            return false;
+        }
+        if (join.getUsingColumns() != null && !join.getUsingColumns().isEmpty()) {
+            return false;
+        }
+        Collection<Expression> ons = join.getOnExpressions();
+        if (ons == null || ons.size() != 1) {
+            return false;
+        }
+        Expression on = ons.iterator().next();
+        if (hasParameter(on.toString())) {
+            return false;
+        }
+        String name = table.getAlias() != null ? table.getAlias().getName() : table.getName();
+        if (!matchesUniqueKey(on, name)) {
+            return false;
+        }
+        // where和其它join的on条件里都不能引用这张表
+        ColumnCollector collector = new ColumnCollector();
+        if (plain.getWhere() != null) {
+            plain.getWhere().accept(collector);
+        }
+        for (Join other : joins) {
+            if (other != join && other.getOnExpressions() != null) {
+                for (Expression otherOn : other.getOnExpressions()) {
+                    otherOn.accept(collector);
+                }
+            }
+        }
+        if (collector.subSelect) {
+            return false;
+        }
+        for (Column column : collector.columns) {
+            Table owner = column.getTable();
+            if (owner == null || owner.getName() == null) {
+                // 不带表名的列分不清属于哪张表，保守处理
+                return false;
+            }
+            if (owner.getName().equalsIgnoreCase(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // on条件里至少有一个 其它表.列 = 本表.唯一键 的等值条件
+    private boolean matchesUniqueKey(Expression on, String name) {
+        if (on instanceof AndExpression and) {
+            return matchesUniqueKey(and.getLeftExpression(), name) || matchesUniqueKey(and.getRightExpression(), name);
+        }
+        if (!(on instanceof EqualsTo equalsTo)) {
+            return false;
+        }
+        if (!(equalsTo.getLeftExpression() instanceof Column left) || !(equalsTo.getRightExpression() instanceof Column right)) {
+            return false;
+        }
+        return isUniqueKeyOf(left, name) && isOther(right, name) || isUniqueKeyOf(right, name) && isOther(left, name);
+    }
+
+    private boolean isUniqueKeyOf(Column column, String name) {
+        Table table = column.getTable();
+        return table != null && name.equalsIgnoreCase(table.getName())
+                && uniqueKeys.contains(column.getColumnName().toLowerCase(Locale.ROOT));
+    }
+
+    private boolean isOther(Column column, String name) {
+        Table table = column.getTable();
+        return table != null && table.getName() != null && !name.equalsIgnoreCase(table.getName());
+    }
+
+    private static boolean hasParameter(String sql) {
+        return sql.indexOf('?') > -1;
+    }
+
+    private static class ColumnCollector extends ExpressionVisitorAdapter {
+        private final List<Column> columns = new ArrayList<>();
+        private boolean subSelect;
+
+        @Override
+        public void visit(Column column) {
+            columns.add(column);
+        }
+
+        @Override
+        public void visit(ParenthesedSelect select) {
+            subSelect = true;
+        }
+    }
+
+    /**
+     * @param sql 去掉末尾分号的原sql，分页时在后面拼limit
+     * @param countSql count语句，参数顺序和原sql一致
+     * @param unorderedSql 去掉order by之后的sql，不能安全去掉时和sql相同
+     * @param pageSql 带 LIMIT ?, ? 的分页sql，offset和pageSize按参数绑定
+     * @param countTable 不带条件的单表查询时的表名（可能带库名），总数可以用表的统计信息估算；其它情况为null
+     * @param deferredPageSql 先按主键分页再join回原表的分页sql，参数和pageSql一样；不能安全改写时为null
+     * @param mergeSql 分片查询用的sql，order by补全到包含主键，参数和sql一样；不能跨分片归并时为null
+     * @param mergeOrder mergeSql的排序列，归并各分片结果时用
+     * @param ordered 最外层带order by，跨分片时结果不能直接拼接
+     */
+    public record Rewritten(String sql, String countSql, String unorderedSql, String pageSql, String countTable,
+                            String deferredPageSql, String mergeSql, List<SortKey> mergeOrder, boolean ordered) {
+    }
+
+    public record SortKey(String column, boolean desc) {
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.plugin2;
+
+import org.example.plugin.CountMode;
+import org.example.plugin.PageParam;
+
+import java.util.regex.Pattern;
+
+/**
+ * @author yufengyang
+ * @Package org.example.plugin2
+ * @date 2025/8/23 15:02
+ * @school hnist
+ */
+public class KeysetParam extends PageParam {
+    // 排序列会直接拼进sql，只允许普通列名
+    private static final Pattern COLUMN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final String sortKey;
+    private final Object lastValue;
+    private final boolean desc;
+
+    public KeysetParam(String sortKey, Object lastValue, int pageSize) {
+        this(sortKey, lastValue, pageSize, false);
+    }
+
+    // 默认不count，keyset分页一般不需要总数
+    public KeysetParam(String sortKey, Object lastValue, int pageSize, boolean desc) {
+        this(sortKey, lastValue, pageSize, desc, CountMode.NONE);
+    }
+
+    public KeysetParam(String sortKey, Object lastValue, int pageSize, boolean desc, CountMode countMode) {
+        super(1, pageSize, countMode);
+        if (sortKey == null || !COLUMN.matcher(sortKey).matches()) {
+            throw new IllegalArgumentException("非法的排序列: " + sortKey);
+        }
+        this.sortKey = sortKey;
+        this.lastValue = lastValue;
+        this.desc = desc;
+    }
+
+    public String getSortKey() {
+        return sortKey;
+    }
+
+    // 为null表示第一页，不加seek条件
+    public Object getLastValue() {
+        return lastValue;
+    }
+
+    public boolean isDesc() {
+        return desc;
+    }
+
+    @Override
+    public int offset() {
+        return 0;
+    }
+}
@@ -14,6 +14,11 @@ public class Page <T> extends ArrayList<T> {
     private final long total;
     private final int pageNum;
     private final int pageSize;
+    // keyset分页时下一页的游标（本页最后一行的排序列值），没有下一页时为null
+    private Object nextCursor;
+    // total是估算值或未知时为false
+    private boolean exact = true;
+    private boolean hasNext;
 
     public Page(int pageNum, int pageSize, long total) {
         this.pageNum = pageNum;
@@ -31,4 +36,10 @@ public class Page <T> extends ArrayList<T> {
     public int getPageSize() { return pageSize; }
     public long getPages() { return (pageSize == 0) ? 0 : (long) Math.ceil(total * 1.0 / pageSize); }
     public List<T> getResult(){return (List<T>) this;}
+    public Object getNextCursor() { return nextCursor; }
+    public void setNextCursor(Object nextCursor) { this.nextCursor = nextCursor; }
+    public boolean isExact() { return exact; }
+    public void setExact(boolean exact) { this.exact = exact; }
+    public boolean isHasNext() { return hasNext; }
+    public void setHasNext(boolean hasNext) { this.hasNext = hasNext; }
 }
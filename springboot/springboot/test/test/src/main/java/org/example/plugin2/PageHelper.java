@@ -1,8 +1,11 @@
 package org.example.plugin2;
 
+import org.example.plugin.CountMode;
 import org.example.plugin.PageParam;
+import org.example.plugin.PageScope;
 
 /**
+ * 旧接口，内部就是PageScope；插件返回的Page里已经带了总数，查完调用clearAll
  * @author yufengyang
  * @Package org.example.plugin
  * @date 2025/8/16 20:41
@@ -10,32 +13,36 @@ import org.example.plugin.PageParam;
  */
 public class PageHelper {
     private PageHelper(){}
-    private static final ThreadLocal<PageParam> PAGE_HOLDER = new ThreadLocal<>();
-    private static final ThreadLocal<Long> TOTAL_HOLDER = new ThreadLocal<>();
 
     public static void startPage(PageParam pageParam){
-        PAGE_HOLDER.set(pageParam);
+        PageScope.open(pageParam);
     }
-    public static void setTotalHolder(Long totalHoldder){
-        TOTAL_HOLDER.set(totalHoldder);
+    // countMode为ESTIMATED时返回的Page.isExact()可能为false
+    public static void startPage(int pageNum, int pageSize, CountMode countMode){
+        PageScope.open(new PageParam(pageNum, pageSize, countMode));
+    }
+    // keyset分页：按sortKey升序，从lastValue之后取pageSize条，lastValue为null时取第一页
+    public static void startKeyset(String sortKey, Object lastValue, int pageSize){
+        PageScope.open(new KeysetParam(sortKey, lastValue, pageSize));
+    }
+    public static void startKeyset(String sortKey, Object lastValue, int pageSize, boolean desc){
+        PageScope.open(new KeysetParam(sortKey, lastValue, pageSize, desc));
     }
 
     public static PageParam getPageHolder(){
-        return PAGE_HOLDER.get();
+        PageScope scope = PageScope.current();
+        return scope == null ? null : scope.getPage();
     }
 
     public static Long getTotalHolder(){
-        return TOTAL_HOLDER.get();
+        PageScope scope = PageScope.current();
+        return scope == null || !scope.isConsumed() ? null : scope.getTotal();
     }
     public static void clearPageHoler(){
-        PAGE_HOLDER.remove();
-    }
-    public static void clearTotalHolder(){
-        TOTAL_HOLDER.remove();
+        PageScope.clear();
     }
     public static void clearAll(){
-        clearPageHoler();
-        clearTotalHolder();
+        PageScope.clear();
     }
 
 }
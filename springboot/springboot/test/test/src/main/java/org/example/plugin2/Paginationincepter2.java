@@ -2,27 +2,21 @@ package org.example.plugin2;
 
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.executor.Executor;
-import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
-import org.apache.ibatis.mapping.ParameterMapping;
-import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.plugin.Intercepts;
 import org.apache.ibatis.plugin.Invocation;
 import org.apache.ibatis.plugin.Signature;
-import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.example.plugin.PageParam;
-import org.example.plugin.PaginationContext;
+import org.example.plugin.PageScope;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin.SqlRewriter;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 
 /**
@@ -33,127 +27,116 @@ import java.util.Locale;
  */
 @Intercepts({
         @Signature(type = Executor.class , method = "query",args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
-        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class})
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
 })
 
 public class Paginationincepter2 implements Interceptor {
+    private static final String KEYSET_LAST = "_keyset_last";
+    private final PaginationSupport support;
+
+    public Paginationincepter2() {
+        this(new PaginationSupport());
+    }
+
+    // count缓存、sql改写、并行count都在support里，两个插件共用
+    public Paginationincepter2(PaginationSupport support) {
+        this.support = support;
+    }
+
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
-        PageParam page= PageHelper.getPageHolder();
-        if(page == null){
+        if("update".equals(invocation.getMethod().getName())){
+            // 写操作之后该namespace下缓存的count都不可信了
+            Object result = invocation.proceed();
+            support.onUpdate((MappedStatement) invocation.getArgs()[0]);
+            return result;
+        }
+        // 和Paginationincepter共用PageScope，作用域里只有第一条查询分页
+        PageScope scope = PageScope.take();
+        if(scope == null){
             return invocation.proceed();
         }
+        PageParam page = scope.getPage();
         Object[] args = invocation.getArgs();
         MappedStatement ms = (MappedStatement) args[0];
         Object parameterObject = args[1];
         RowBounds rowBounds = (RowBounds) args[2];
         ResultHandler<?> resultHandler = (ResultHandler<?>) args[3];
-        CacheKey cacheKey;
-        BoundSql boundSql;
         Executor executor = (Executor) invocation.getTarget();
-        if(args.length==4){
-             boundSql = ms.getBoundSql(parameterObject);
-             cacheKey = executor.createCacheKey(ms, parameterObject, rowBounds, boundSql);
-        }else {
-            boundSql = (BoundSql) args[4];
-            cacheKey = (CacheKey) args[5];
-        }
-        String originSql = boundSql.getSql().trim();// trim()方法为去除前后空格
-        originSql = originSql.replaceAll(";\\s*$", "");
-        String countSql = "select count(*) from("+ stripOderby(originSql)+") as total_query";
-        long total = queryCount(executor,ms,parameterObject,boundSql,countSql);
-        PageHelper.setTotalHolder(total);
-
-        String pagesql=originSql + " LIMIT "+page.offset()+","+page.getPageSize();
-        BoundSql newBoundsql = new BoundSql(ms.getConfiguration(),pagesql,boundSql.getParameterMappings(),parameterObject);
-
-        for(ParameterMapping pm : boundSql.getParameterMappings()){
-            String prop = pm.getProperty();
-            if(boundSql.hasAdditionalParameter(prop)){
-                newBoundsql.setAdditionalParameter(prop,boundSql.getAdditionalParameter(prop));
+        BoundSql boundSql = args.length == 4 ? ms.getBoundSql(parameterObject) : (BoundSql) args[4];
+        CacheKey cacheKey = args.length == 4 ? executor.createCacheKey(ms, parameterObject, rowBounds, boundSql) : (CacheKey) args[5];
+        // 改写结果按statement id + sql缓存，同样的sql只解析一次
+        SqlRewriter.Rewritten rewritten = support.getSqlRewriter().rewrite(ms, boundSql.getSql());
+
+        BoundSql pageBoundSql;
+        KeysetParam keyset = page instanceof KeysetParam k ? k : null;
+        if(keyset != null){
+            // seek条件代替offset，深页和第一页代价一样
+            pageBoundSql = support.newBoundSql(ms,boundSql,keysetSql(rewritten.unorderedSql(), keyset),parameterObject,2);
+            if(keyset.getLastValue() != null){
+                support.bind(ms,pageBoundSql,KEYSET_LAST,Object.class,keyset.getLastValue());
             }
+            // 多取一行判断有没有下一页，这页正好取满时也不会多给一个空的下一页
+            support.bind(ms,pageBoundSql,PaginationSupport.PAGE_SIZE,Integer.class,page.getPageSize() + 1);
+        }else {
+            // limit按参数绑定，sql模板不变，驱动和服务端都能复用预编译语句
+            pageBoundSql = support.offsetPageBoundSql(ms,boundSql,rewritten,parameterObject,page);
         }
-        // 虽然已经有新的boundsql，但是mappstament其他属性仍然需要，所以这里需要copy一下
-        MappedStatement newMs = copyMappedStatement(ms,new BoundSqlSource(newBoundsql));
-        // 重新更新cachekey，否则会命中错误缓存
-        CacheKey newcacheKey = executor.createCacheKey(newMs, parameterObject, rowBounds, newBoundsql);
-        System.out.println(newMs.getBoundSql(parameterObject).getSql().trim());
-        Object query = executor.query(newMs, parameterObject, rowBounds, resultHandler);
-        try {
-            if(query instanceof List<?>list){
-                Page<Object> wrapper = new Page<>(page.getPageNum(), page.getPageSize(), total);
-                wrapper.addAll(list);
-                return wrapper;
+        // 直接把新的boundsql传给executor，不用再copy一份mappedstatement；cachekey带上了分页参数，不会命中错误缓存
+        CacheKey pageCacheKey = executor.createCacheKey(ms, parameterObject, rowBounds, pageBoundSql);
+        // 同样的分页查询同一时刻只查一次库，其余请求等它的结果，每个请求拿到的Page都是自己的
+        PaginationSupport.Fetched fetched = support.fetchShared(executor, pageCacheKey, page, resultHandler, () -> {
+            if(support.isSharded()){
+                // 分片时每个分片取排在前面的行，归并出全局的这一页；keyset的sql本身就只取pageSize+1行
+                BoundSql shardBoundSql = keyset != null ? pageBoundSql : support.shardPageBoundSql(ms,boundSql,rewritten,parameterObject,page);
+                List<SqlRewriter.SortKey> order = keyset != null ? List.of(new SqlRewriter.SortKey(keyset.getSortKey(), keyset.isDesc())) : rewritten.mergeOrder();
+                return support.scatterPage(ms, parameterObject, boundSql, cacheKey, rewritten, page, shardBoundSql, order,
+                        keyset != null ? 0 : page.offset(), keyset != null ? page.getPageSize() + 1 : support.fetchSize(page));
             }
-            return query;
-        }finally {
-            PageHelper.clearAll();
+            // 并行模式下count在另一个连接上跑，和下面的分页查询同时进行；ESTIMATED模式可能直接用表的行数估计
+            PaginationSupport.PendingCount pendingCount = support.startCount(executor,ms,parameterObject,boundSql,cacheKey,rewritten,page.getCountMode());
+            long start = System.nanoTime();
+            Object result = executor.query(ms, parameterObject, rowBounds, resultHandler, pageCacheKey, pageBoundSql);
+            support.recordFetch(ms, pageBoundSql, parameterObject, System.nanoTime() - start, page.offset(), result);
+            return new PaginationSupport.Fetched(result, support.resolveTotal(pendingCount, page, result instanceof List<?> list ? list.size() : 0));
+        });
+        Object query = fetched.result();
+        int rows = query instanceof List<?> list ? list.size() : 0;
+        PaginationSupport.Total total = fetched.total();
+        // keyset的total是整张表的，是否有下一页只看有没有多取到一行
+        boolean hasNext = keyset != null ? rows > page.getPageSize() : support.hasNext(page, total, rows);
+        scope.complete(total.value(), total.exact(), hasNext);
+        if(keyset == null){
+            // 打开预取时后台把下一页先查好
+            support.prefetchNext(executor, ms, parameterObject, rowBounds, resultHandler, boundSql, rewritten, page, total, hasNext);
         }
-    }
-
-    private MappedStatement copyMappedStatement(MappedStatement ms, BoundSqlSource boundSqlSource) {
-        MappedStatement.Builder builder = new MappedStatement.Builder(ms.getConfiguration(), ms.getId(),boundSqlSource,ms.getSqlCommandType())
-                .resource(ms.getResource())
-                .fetchSize(ms.getFetchSize())
-                .statementType(ms.getStatementType())
-                .keyGenerator(ms.getKeyGenerator())
-                .timeout(ms.getTimeout())
-                .parameterMap(ms.getParameterMap())
-                .resultMaps(ms.getResultMaps())
-                .resultSetType(ms.getResultSetType())
-                .cache(ms.getCache())
-                .flushCacheRequired(ms.isFlushCacheRequired())
-                .useCache(ms.isUseCache());
-        if(ms.getKeyProperties()!=null&&ms.getKeyProperties().length>0)
-            builder.keyProperty(String.join(",", ms.getKeyProperties()));
-
-        return builder.build();
-
-
-
-    }
-
-    private String stripOderby(String sql){
-        String lower = sql.toLowerCase(Locale.ROOT);
-        int idx = lower.lastIndexOf("order by");
-        return (idx > -1)?sql.substring(0,idx) : sql;
-    }
-    private long queryCount(Executor executor, MappedStatement ms, Object param, BoundSql boundSql, String countSql) throws SQLException {
-        Configuration configuration = ms.getConfiguration();
-        Connection connection = executor.getTransaction().getConnection();
-        try (
-            PreparedStatement preparedStatement = connection.prepareStatement(countSql)){
-            ParameterHandler ph = configuration.newParameterHandler(ms, param, boundSql);
-            ph.setParameters(preparedStatement);
-            System.out.println(boundSql.getSql().trim());
-
-            try (ResultSet resultSet = preparedStatement.executeQuery()){
-                return resultSet.next() ? resultSet.getLong(1) : 0L;
+        if(query instanceof List<?>list){
+            List<?> rowsOfPage = keyset != null && hasNext ? new ArrayList<>(list.subList(0, page.getPageSize())) : support.trimExtraRow(page, list);
+            Page<Object> wrapper = new Page<>(page.getPageNum(), page.getPageSize(), total.value(), rowsOfPage);
+            wrapper.setExact(total.exact());
+            wrapper.setHasNext(hasNext);
+            if(keyset != null && hasNext){
+                wrapper.setNextCursor(cursorOf(ms, rowsOfPage.get(rowsOfPage.size() - 1), keyset.getSortKey()));
+                scope.setNextCursor(wrapper.getNextCursor());
             }
-
+            return wrapper;
         }
+        return query;
     }
-    private static  class  BoundSqlSource implements SqlSource{
-        private final BoundSql boundSql;
 
-        public BoundSqlSource(BoundSql boundSql) {
-            this.boundSql = boundSql;
-        }
-
-        @Override
-        public BoundSql getBoundSql(Object parameterObject) {
-            return boundSql;
+    private String keysetSql(String sql, KeysetParam keyset){
+        String key = keyset.getSortKey();
+        StringBuilder sb = new StringBuilder("select * from(").append(sql).append(") as keyset_query");
+        if(keyset.getLastValue() != null){
+            sb.append(" where ").append(key).append(keyset.isDesc() ? " < ?" : " > ?");
         }
+        sb.append(" order by ").append(key).append(keyset.isDesc() ? " desc" : " asc");
+        sb.append(" LIMIT ?");
+        return sb.toString();
     }
 
+    private Object cursorOf(MappedStatement ms, Object row, String sortKey){
+        return PaginationSupport.columnValue(ms.getConfiguration(), row, sortKey);
     }
-
-
-
-
-
-
-
-
-
-
+}
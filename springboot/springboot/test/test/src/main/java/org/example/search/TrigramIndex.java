@@ -0,0 +1,209 @@
+package org.example.search;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * @author yufengyang
+ * @Package org.example.search
+ * @date 2025/9/7 16:20
+ * @school hnist
+ */
+public class TrigramIndex {
+    public static final int GRAM = 3;
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    // 三个字符拼成一个long作为key，每个key对应一个升序的id数组
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+
+    /**
+     * 建索引和运行时新增都走这里，同一个id重复加入不会重复记录
+     */
+    public void add(long id, String text) {
+        if (text == null) {
+            return;
+        }
+        long[] grams = grams(normalize(text));
+        lock.writeLock().lock();
+        try {
+            for (long gram : grams) {
+                postings.computeIfAbsent(gram, g -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // text必须是加入时的原值
+    public void remove(long id, String text) {
+        if (text == null) {
+            return;
+        }
+        long[] grams = grams(normalize(text));
+        lock.writeLock().lock();
+        try {
+            for (long gram : grams) {
+                Postings list = postings.get(gram);
+                if (list != null && list.remove(id) && list.size == 0) {
+                    postings.remove(gram);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 包含query所有三元组的id，升序；结果是候选集，调用方还要按原文再过滤一次
+     * @return 索引还没建好或者query不足三个字符时返回null，调用方走数据库
+     */
+    public long[] search(String query) {
+        if (!ready || query == null) {
+            return null;
+        }
+        long[] grams = grams(normalize(query));
+        if (grams.length == 0) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[grams.length];
+            for (int i = 0; i < grams.length; i++) {
+                lists[i] = postings.get(grams[i]);
+                if (lists[i] == null) {
+                    return new long[0];
+                }
+            }
+            // 从最短的开始求交集，中间结果只会越来越小
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            long[] result = Arrays.copyOf(lists[0].ids, lists[0].size);
+            int size = result.length;
+            for (int i = 1; i < lists.length && size > 0; i++) {
+                size = intersect(result, size, lists[i]);
+            }
+            return size == result.length ? result : Arrays.copyOf(result, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 全量加载完成后再对外提供查询
+    public void markReady() {
+        this.ready = true;
+    }
+
+    public int gramCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 和MySQL默认的utf8mb4_0900_ai_ci一样不区分大小写和重音：分解出附加符号去掉后再合成，é和e算同一个字符
+     * 排序规则里其它的等价（比如ß和ss、全角和半角）这里不处理，这类名字会比数据库的like少匹配
+     */
+    public static String normalize(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); i++) {
+            if (lower.charAt(i) >= 0x80) {
+                // 合成回去，韩文音节这类分解后没有附加符号的字符保持原样
+                String stripped = COMBINING_MARKS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll("");
+                return Normalizer.normalize(stripped, Normalizer.Form.NFC);
+            }
+        }
+        // 纯ASCII没有附加符号，不用分解
+        return lower;
+    }
+
+    // 结果原地写回result，返回交集大小
+    private static int intersect(long[] result, int size, Postings other) {
+        long[] ids = other.ids;
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < other.size) {
+            if (result[i] < ids[j]) {
+                i++;
+            } else if (result[i] > ids[j]) {
+                j++;
+            } else {
+                result[k++] = result[i];
+                i++;
+                j++;
+            }
+        }
+        return k;
+    }
+
+    private static long[] grams(String text) {
+        int n = text.length() - GRAM + 1;
+        if (n <= 0) {
+            return new long[0];
+        }
+        long[] grams = new long[n];
+        for (int i = 0; i < n; i++) {
+            grams[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        // 去重，同一个名字里重复的三元组只算一次
+        int size = 1;
+        for (int i = 1; i < n; i++) {
+            if (grams[i] != grams[size - 1]) {
+                grams[size++] = grams[i];
+            }
+        }
+        return size == n ? grams : Arrays.copyOf(grams, size);
+    }
+
+    // 升序的long数组，id一般是递增插入，追加到末尾是常见情况
+    private static class Postings {
+        private long[] ids = new long[4];
+        private int size;
+
+        void add(long id) {
+            if (size > 0 && ids[size - 1] < id) {
+                grow();
+                ids[size++] = id;
+                return;
+            }
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            grow();
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        boolean remove(long id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        private void grow() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length + (ids.length >> 1) + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.shard;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 依次读各个分片的游标，同一时刻只占一个分片的连接；读完一个分片就关掉它的连接
+ *
+ * @author yufengyang
+ * @Package org.example.shard
+ * @date 2025/9/21 18:12
+ * @school hnist
+ */
+class ShardCursor<T> implements Cursor<T> {
+    private final ShardRouter router;
+    private final MappedStatement ms;
+    private final Object parameterObject;
+    private final RowBounds rowBounds;
+    private final int[] shards;
+    private int next;
+    private Executor executor;
+    private Cursor<T> current;
+    private Iterator<T> iterator;
+    private int index = -1;
+    private boolean consumed;
+    private boolean closed;
+    private boolean iteratorRetrieved;
+
+    ShardCursor(ShardRouter router, MappedStatement ms, Object parameterObject, RowBounds rowBounds, int[] shards) {
+        this.router = router;
+        this.ms = ms;
+        this.parameterObject = parameterObject;
+        this.rowBounds = rowBounds;
+        this.shards = shards;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && current != null;
+    }
+
+    @Override
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return index;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (iteratorRetrieved) {
+            throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+        }
+        iteratorRetrieved = true;
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return advance();
+            }
+
+            @Override
+            public T next() {
+                if (!advance()) {
+                    throw new NoSuchElementException();
+                }
+                index++;
+                return iterator.next();
+            }
+        };
+    }
+
+    // 当前分片读完时打开下一个，全部读完返回false
+    private boolean advance() {
+        while (!closed && (iterator == null || !iterator.hasNext())) {
+            closeCurrent();
+            if (next >= shards.length) {
+                consumed = true;
+                return false;
+            }
+            executor = new SimpleExecutor(ms.getConfiguration(), new JdbcTransaction(router.getShard(shards[next++]), null, true));
+            try {
+                current = executor.queryCursor(ms, parameterObject, rowBounds);
+            } catch (SQLException e) {
+                closeCurrent();
+                throw new IllegalStateException("打开分片游标失败", e);
+            }
+            iterator = current.iterator();
+        }
+        return !closed;
+    }
+
+    private void closeCurrent() {
+        try {
+            if (current != null) {
+                current.close();
+            }
+        } catch (IOException ignored) {
+            // 游标关闭失败也要继续关连接
+        } finally {
+            current = null;
+            iterator = null;
+            if (executor != null) {
+                executor.close(false);
+                executor = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeCurrent();
+    }
+}
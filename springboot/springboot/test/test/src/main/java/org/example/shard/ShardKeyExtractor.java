@@ -0,0 +1,178 @@
+package org.example.shard;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.update.Update;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 从sql里找分片键的值：where顶层and条件里的 key = ? / key in (?, ...)，insert里key列的值
+ * 解析结果按sql缓存，值按参数位置从BoundSql里取
+ *
+ * @author yufengyang
+ * @Package org.example.shard
+ * @date 2025/9/21 16:40
+ * @school hnist
+ */
+public class ShardKeyExtractor {
+    private static final int MAX_PLANS = 1024;
+    // 找不到分片键的sql也缓存，用这个占位
+    private static final KeyPlan NONE = new KeyPlan(new int[0], new long[0]);
+
+    private final String keyColumn;
+    private final ConcurrentMap<String, KeyPlan> plans = new ConcurrentHashMap<>();
+
+    public ShardKeyExtractor(String keyColumn) {
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * @return 分片键的值；sql没有限定分片键或者值取不到时返回null，调用方发到所有分片
+     */
+    public long[] keys(MappedStatement ms, BoundSql boundSql, Object parameterObject) {
+        KeyPlan plan = plan(boundSql.getSql());
+        if (plan == NONE) {
+            return null;
+        }
+        long[] keys = new long[plan.parameters.length + plan.literals.length];
+        List<ParameterMapping> mappings = boundSql.getParameterMappings();
+        for (int i = 0; i < plan.parameters.length; i++) {
+            if (plan.parameters[i] >= mappings.size()) {
+                return null;
+            }
+            Object value = valueOf(ms.getConfiguration(), boundSql, parameterObject, mappings.get(plan.parameters[i]));
+            if (!(value instanceof Number number)) {
+                return null;
+            }
+            keys[i] = number.longValue();
+        }
+        System.arraycopy(plan.literals, 0, keys, plan.parameters.length, plan.literals.length);
+        return keys;
+    }
+
+    private KeyPlan plan(String sql) {
+        KeyPlan plan = plans.get(sql);
+        if (plan == null) {
+            if (plans.size() >= MAX_PLANS) {
+                plans.clear();
+            }
+            plan = parse(sql);
+            plans.put(sql, plan);
+        }
+        return plan;
+    }
+
+    private KeyPlan parse(String sql) {
+        Statement statement;
+        try {
+            statement = CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            return NONE;
+        }
+        List<Expression> values = new ArrayList<>();
+        if (statement instanceof PlainSelect select) {
+            collect(select.getWhere(), values);
+        } else if (statement instanceof Update update) {
+            collect(update.getWhere(), values);
+        } else if (statement instanceof Delete delete) {
+            collect(delete.getWhere(), values);
+        } else if (statement instanceof Insert insert) {
+            collect(insert, values);
+        }
+        if (values.isEmpty()) {
+            return NONE;
+        }
+        List<Integer> parameters = new ArrayList<>();
+        List<Long> literals = new ArrayList<>();
+        for (Expression value : values) {
+            if (value instanceof JdbcParameter parameter && parameter.getIndex() != null) {
+                // 解析器按出现顺序从1开始编号，和BoundSql里的参数顺序一致
+                parameters.add(parameter.getIndex() - 1);
+            } else if (value instanceof LongValue literal) {
+                literals.add(literal.getValue());
+            } else {
+                return NONE;
+            }
+        }
+        return new KeyPlan(parameters.stream().mapToInt(Integer::intValue).toArray(),
+                literals.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    // 只看顶层的and，or或者括号里的条件不确定落在哪些分片
+    private void collect(Expression where, List<Expression> values) {
+        if (where instanceof AndExpression and) {
+            collect(and.getLeftExpression(), values);
+            if (values.isEmpty()) {
+                collect(and.getRightExpression(), values);
+            }
+        } else if (where instanceof EqualsTo equalsTo) {
+            if (isKey(equalsTo.getLeftExpression())) {
+                values.add(equalsTo.getRightExpression());
+            } else if (isKey(equalsTo.getRightExpression())) {
+                values.add(equalsTo.getLeftExpression());
+            }
+        } else if (where instanceof InExpression in && !in.isNot() && isKey(in.getLeftExpression())
+                && in.getRightExpression() instanceof ExpressionList<?> list) {
+            values.addAll(list);
+        }
+    }
+
+    // 单行insert里分片键列的值，多行insert返回空
+    private void collect(Insert insert, List<Expression> values) {
+        if (insert.getColumns() == null || insert.getValues() == null) {
+            return;
+        }
+        ExpressionList<?> row = insert.getValues().getExpressions();
+        if (row.isEmpty() || row.get(0) instanceof ExpressionList || row.size() != insert.getColumns().size()) {
+            return;
+        }
+        for (int i = 0; i < row.size(); i++) {
+            if (insert.getColumns().get(i).getColumnName().equalsIgnoreCase(keyColumn)) {
+                values.add(row.get(i));
+                return;
+            }
+        }
+    }
+
+    private boolean isKey(Expression expression) {
+        return expression instanceof Column column && column.getColumnName().equalsIgnoreCase(keyColumn);
+    }
+
+    // 和DefaultParameterHandler取参数值的方式一样
+    private static Object valueOf(Configuration configuration, BoundSql boundSql, Object parameterObject, ParameterMapping mapping) {
+        String property = mapping.getProperty();
+        if (boundSql.hasAdditionalParameter(property)) {
+            return boundSql.getAdditionalParameter(property);
+        }
+        if (parameterObject == null) {
+            return null;
+        }
+        if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+            return parameterObject;
+        }
+        return configuration.newMetaObject(parameterObject).getValue(property);
+    }
+
+    private record KeyPlan(int[] parameters, long[] literals) {
+    }
+}
@@ -0,0 +1,150 @@
+package org.example.shard;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * t_user按id分片：id对分片数取模决定在哪个库
+ * 新插入的行由各分片自己的自增生成id，第k个分片要配置成只生成模N余k的id，
+ * 比如MySQL的 auto_increment_increment=N、auto_increment_offset=k（第0个分片用N）
+ *
+ * @author yufengyang
+ * @Package org.example.shard
+ * @date 2025/9/21 16:05
+ * @school hnist
+ */
+public class ShardRouter {
+    private final List<DataSource> shards;
+    private final ExecutorService pool;
+    // 插入轮流分到各个分片
+    private final AtomicInteger nextInsert = new AtomicInteger();
+
+    /**
+     * @param threads 同时向各分片发查询的线程数，一般不小于分片数
+     */
+    public ShardRouter(List<DataSource> shards, int threads) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("至少要有一个分片");
+        }
+        this.shards = List.copyOf(shards);
+        AtomicInteger seq = new AtomicInteger();
+        // 队列满了由提交的请求线程自己查，慢分片不会让排队的任务无限堆积；
+        // 不用CallerRunsPolicy是因为它在关闭后会悄悄丢掉任务，scatter会一直等下去
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 4), r -> {
+            Thread t = new Thread(r, "shard-query-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, (r, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("分片查询线程池已关闭");
+            }
+            r.run();
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.pool = pool;
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    public DataSource getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    public int shardOf(long id) {
+        return Math.floorMod(id, shards.size());
+    }
+
+    public int nextInsertShard() {
+        return Math.floorMod(nextInsert.getAndIncrement(), shards.size());
+    }
+
+    public int[] allShards() {
+        int[] all = new int[shards.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    /**
+     * 在一个分片上执行：给这次调用单独开一个自动提交连接上的executor，用完关掉；不经过插件和二级缓存
+     */
+    public <T> T execute(Configuration configuration, int shard, ShardCall<T> call) throws SQLException {
+        Executor executor = new SimpleExecutor(configuration, new JdbcTransaction(shards.get(shard), null, true));
+        try {
+            return call.call(shard, executor);
+        } finally {
+            executor.close(false);
+        }
+    }
+
+    /**
+     * 在多个分片上并行执行，结果顺序和shards一致；只有一个分片时直接在当前线程执行
+     */
+    public <T> List<T> scatter(Configuration configuration, int[] shards, ShardCall<T> call) throws SQLException {
+        List<T> results = new ArrayList<>(shards.length);
+        if (shards.length == 1) {
+            results.add(execute(configuration, shards[0], call));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(shards.length);
+        for (int shard : shards) {
+            futures.add(pool.submit(() -> execute(configuration, shard, call)));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new SQLException("等待分片查询结果时被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException("分片查询失败", cause);
+        }
+        return results;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        for (DataSource shard : shards) {
+            try {
+                // 分片可能包了一层BulkheadDataSource，关的是里面的连接池
+                if (shard.isWrapperFor(AutoCloseable.class)) {
+                    shard.unwrap(AutoCloseable.class).close();
+                }
+            } catch (Exception ignored) {
+                // 关闭时的异常不影响其它分片
+            }
+        }
+    }
+
+    public interface ShardCall<T> {
+        T call(int shard, Executor executor) throws SQLException;
+    }
+}
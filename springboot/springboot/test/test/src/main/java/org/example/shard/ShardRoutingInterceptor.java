@@ -0,0 +1,176 @@
+package org.example.shard;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.example.plugin.PageScope;
+import org.example.plugin.PaginationSupport;
+import org.example.plugin.SqlRewriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分片模式下不分页的语句按分片键路由：
+ * where里限定了分片键的只发到对应分片，insert按id或者轮流选一个分片，其它的发到所有分片再合起来：
+ * 没有order by的直接按分片顺序拼接，有order by的按补上主键的排序在各分片查完再归并，不能归并的直接报错；
+ * 带order by的游标查询落到多个分片时也报错，游标只能按分片顺序逐个读
+ * 带ResultHandler的查询和mybatis一样把行交给ResultHandler，返回空list
+ * 分页查询交给Paginationincepter2做分片归并
+ * 每条语句在分片上用自动提交的连接执行，不参与Spring事务，也不经过二级缓存
+ *
+ * @author yufengyang
+ * @Package org.example.shard
+ * @date 2025/9/21 17:20
+ * @school hnist
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor", args = {MappedStatement.class, Object.class, RowBounds.class}),
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
+})
+public class ShardRoutingInterceptor implements Interceptor {
+    private final ShardRouter router;
+    private final ShardKeyExtractor keyExtractor;
+    private final PaginationSupport support;
+
+    public ShardRoutingInterceptor(ShardRouter router, ShardKeyExtractor keyExtractor, PaginationSupport support) {
+        this.router = router;
+        this.keyExtractor = keyExtractor;
+        this.support = support;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object[] args = invocation.getArgs();
+        MappedStatement ms = (MappedStatement) args[0];
+        Object parameterObject = args[1];
+        String method = invocation.getMethod().getName();
+        if ("update".equals(method)) {
+            return update(ms, parameterObject);
+        }
+        PageScope scope = PageScope.current();
+        if (scope != null && !scope.isConsumed()) {
+            // 还没分页的作用域留给分页插件，由它向各分片取数归并
+            return invocation.proceed();
+        }
+        RowBounds rowBounds = (RowBounds) args[2];
+        BoundSql boundSql = args.length == 6 ? (BoundSql) args[5] : ms.getBoundSql(parameterObject);
+        int[] shards = shardsOf(ms, boundSql, parameterObject);
+        SqlRewriter.Rewritten rewritten = shards.length > 1 ? support.getSqlRewriter().rewrite(ms, boundSql.getSql()) : null;
+        boolean ordered = rewritten != null && rewritten.ordered();
+        if ("queryCursor".equals(method)) {
+            if (ordered) {
+                throw new IllegalStateException("分片模式下带order by的游标查询没法跨分片保持顺序，改用分页查询或者在where里限定分片键: " + ms.getId());
+            }
+            return new ShardCursor<>(router, ms, parameterObject, rowBounds, shards);
+        }
+        ResultHandler<?> resultHandler = (ResultHandler<?>) args[3];
+        if (resultHandler != null && !ordered) {
+            // ResultHandler不一定线程安全，逐个分片执行
+            for (int shard : shards) {
+                router.execute(ms.getConfiguration(), shard, (s, executor) ->
+                        executor.query(ms, parameterObject, rowBounds, resultHandler, executor.createCacheKey(ms, parameterObject, rowBounds, boundSql), boundSql));
+            }
+            return new ArrayList<>();
+        }
+        List<Object> result = ordered ? mergeOrdered(ms, parameterObject, rowBounds, boundSql, rewritten, shards)
+                : concat(ms, parameterObject, rowBounds, boundSql, shards);
+        if (resultHandler != null) {
+            // 归并完再按顺序交给ResultHandler
+            handleResults(resultHandler, result);
+            return new ArrayList<>();
+        }
+        return result;
+    }
+
+    private List<Object> concat(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql,
+                                int[] shards) throws Exception {
+        List<List<Object>> parts = router.scatter(ms.getConfiguration(), shards, (s, executor) ->
+                executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, executor.createCacheKey(ms, parameterObject, rowBounds, boundSql), boundSql));
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        List<Object> result = new ArrayList<>();
+        for (List<Object> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    // 和分页的分片归并一样：各分片按补上主键的order by查，再按同样的排序归并
+    private List<Object> mergeOrdered(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql,
+                                      SqlRewriter.Rewritten rewritten, int[] shards) throws Exception {
+        if (rewritten.mergeSql() == null) {
+            throw new IllegalStateException("分片模式下这条带order by的查询没法跨分片归并（需要单表、不带聚合/distinct/limit、order by是查出来的普通列）: " + ms.getId());
+        }
+        BoundSql mergeBoundSql = support.newBoundSql(ms, boundSql, rewritten.mergeSql(), parameterObject, 0);
+        // RowBounds要在归并之后整体跳过，各分片全部查出来
+        List<List<Object>> parts = router.scatter(ms.getConfiguration(), shards, (s, executor) ->
+                executor.query(ms, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER,
+                        executor.createCacheKey(ms, parameterObject, RowBounds.DEFAULT, mergeBoundSql), mergeBoundSql));
+        return PaginationSupport.merge(ms.getConfiguration(), parts, rewritten.mergeOrder(), rowBounds.getOffset(), rowBounds.getLimit());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void handleResults(ResultHandler<?> resultHandler, List<Object> rows) {
+        ResultHandler<Object> handler = (ResultHandler<Object>) resultHandler;
+        DefaultResultContext<Object> context = new DefaultResultContext<>();
+        for (Object row : rows) {
+            context.nextResultObject(row);
+            handler.handleResult(context);
+            if (context.isStopped()) {
+                break;
+            }
+        }
+    }
+
+    private int update(MappedStatement ms, Object parameterObject) throws Exception {
+        BoundSql boundSql = ms.getBoundSql(parameterObject);
+        int[] shards;
+        if (ms.getSqlCommandType() == SqlCommandType.INSERT) {
+            long[] keys = keyExtractor.keys(ms, boundSql, parameterObject);
+            // 没给id时由选中分片的自增生成，生成的id取模正好落回这个分片；多行insert整批进同一个分片
+            shards = new int[]{keys != null && keys.length == 1 ? router.shardOf(keys[0]) : router.nextInsertShard()};
+        } else {
+            shards = shardsOf(ms, boundSql, parameterObject);
+        }
+        int updated = 0;
+        for (int count : router.scatter(ms.getConfiguration(), shards, (s, executor) -> executor.update(ms, parameterObject))) {
+            updated += count;
+        }
+        // 不经过分页插件的update，count缓存在这里失效
+        support.onUpdate(ms);
+        return updated;
+    }
+
+    private int[] shardsOf(MappedStatement ms, BoundSql boundSql, Object parameterObject) {
+        long[] keys = keyExtractor.keys(ms, boundSql, parameterObject);
+        if (keys == null || keys.length == 0) {
+            return router.allShards();
+        }
+        boolean[] hit = new boolean[router.size()];
+        for (long key : keys) {
+            hit[router.shardOf(key)] = true;
+        }
+        int[] shards = new int[router.size()];
+        int n = 0;
+        for (int i = 0; i < hit.length; i++) {
+            if (hit[i]) {
+                shards[n++] = i;
+            }
+        }
+        return Arrays.copyOf(shards, n);
+    }
+}
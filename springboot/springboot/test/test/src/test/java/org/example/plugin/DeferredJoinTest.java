@@ -0,0 +1,143 @@
+package org.example.plugin;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 延迟关联和普通limit分页在各个offset上取到的行和顺序必须完全一样
+ *
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/9/23 16:05
+ * @school hnist
+ */
+class DeferredJoinTest {
+    private static final int ROWS = 500;
+    private static final int PAGE_SIZE = 20;
+    private static final int[] OFFSETS = {0, 1, 37, 250, 480, 499, 500, 600};
+
+    private static Connection connection;
+    private final SqlRewriter rewriter = new SqlRewriter(16, Set.of("id"));
+
+    @BeforeAll
+    static void createTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:deferred;MODE=MySQL;DATABASE_TO_LOWER=TRUE", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t_user(id BIGINT PRIMARY KEY, name VARCHAR(64), age INT)");
+            statement.execute("CREATE INDEX idx_user_age ON t_user(age)");
+        }
+        // age和name大量重复，还有null，排序值相同的行只能靠主键分先后
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO t_user(id,name,age) VALUES(?,?,?)")) {
+            for (int i = 1; i <= ROWS; i++) {
+                ps.setLong(1, i);
+                if (i % 11 == 0) {
+                    ps.setNull(2, Types.VARCHAR);
+                } else {
+                    ps.setString(2, "user" + i % 37);
+                }
+                ps.setInt(3, 18 + i % 7);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    @AfterAll
+    static void closeConnection() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void allColumnsOrderedByIndexedColumn() throws SQLException {
+        assertSamePages("SELECT * FROM t_user ORDER BY age, id");
+    }
+
+    @Test
+    void whereAndDescendingOrder() throws SQLException {
+        assertSamePages("SELECT id, name, age FROM t_user WHERE age > ? ORDER BY age DESC, id DESC", 20);
+    }
+
+    @Test
+    void aliasedTableWithNullSortValues() throws SQLException {
+        assertSamePages("SELECT u.id, u.name FROM t_user u WHERE u.name LIKE ? OR u.name IS NULL ORDER BY u.name, u.id", "%1%");
+    }
+
+    @Test
+    void columnAliasAndPrimaryKeyOrder() throws SQLException {
+        assertSamePages("SELECT name AS n, id FROM t_user ORDER BY id DESC");
+    }
+
+    @Test
+    void unorderedStatementsAreNotRewritten() {
+        // findAllPage/findAllPage2的sql没有order by，顺序本身不确定
+        assertNull(rewriter.parse("SELECT * FROM t_user").deferredPageSql());
+        // 排序不含主键时相同排序值的行顺序不确定
+        assertNull(rewriter.parse("SELECT * FROM t_user ORDER BY age").deferredPageSql());
+        assertNull(rewriter.parse("SELECT name AS n, id FROM t_user ORDER BY n, id").deferredPageSql());
+    }
+
+    @Test
+    void deferredSqlOnlyFromMinOffset() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("SELECT * FROM t_user ORDER BY age, id");
+        PaginationSupport support = new PaginationSupport();
+        assertSame(rewritten.pageSql(), support.pageSql(rewritten, new PageParam(1000, PAGE_SIZE)));
+        support.enableDeferredJoin(200);
+        assertSame(rewritten.pageSql(), support.pageSql(rewritten, new PageParam(10, PAGE_SIZE)));
+        assertSame(rewritten.deferredPageSql(), support.pageSql(rewritten, new PageParam(11, PAGE_SIZE)));
+        support.shutdown();
+    }
+
+    private void assertSamePages(String sql, Object... params) throws SQLException {
+        SqlRewriter.Rewritten rewritten = rewriter.parse(sql);
+        assertNotNull(rewritten.deferredPageSql(), sql);
+        boolean nonEmpty = false;
+        for (int offset : OFFSETS) {
+            List<List<Object>> plain = page(rewritten.pageSql(), params, offset);
+            List<List<Object>> deferred = page(rewritten.deferredPageSql(), params, offset);
+            assertEquals(plain, deferred, sql + " offset " + offset);
+            nonEmpty |= !plain.isEmpty();
+        }
+        assertTrue(nonEmpty, sql + " 没有查到数据");
+    }
+
+    private static List<List<Object>> page(String sql, Object[] params, int offset) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (Object param : params) {
+                ps.setObject(index++, param);
+            }
+            ps.setInt(index++, offset);
+            ps.setInt(index, PAGE_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                int columns = rs.getMetaData().getColumnCount();
+                List<List<Object>> rows = new ArrayList<>();
+                while (rs.next()) {
+                    List<Object> row = new ArrayList<>(columns);
+                    for (int i = 1; i <= columns; i++) {
+                        row.add(rs.getObject(i));
+                    }
+                    rows.add(row);
+                }
+                return rows;
+            }
+        }
+    }
+}
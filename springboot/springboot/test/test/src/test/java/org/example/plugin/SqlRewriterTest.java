@@ -0,0 +1,181 @@
+package org.example.plugin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 固定每种改写的输出，包括必须原样保留的情况
+ *
+ * @author yufengyang
+ * @Package org.example.plugin
+ * @date 2025/9/23 10:12
+ * @school hnist
+ */
+class SqlRewriterTest {
+    private final SqlRewriter rewriter = new SqlRewriter(16, Set.of("id"));
+
+    @Test
+    void singleTableCountKeepsWhere() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select * from t_user where age > ?;");
+        assertEquals("select * from t_user where age > ?", rewritten.sql());
+        assertEquals("SELECT COUNT(*) FROM t_user WHERE age > ?", rewritten.countSql());
+        assertEquals("select * from t_user where age > ? LIMIT ?, ?", rewritten.pageSql());
+        assertNull(rewritten.countTable());
+    }
+
+    @Test
+    void countTableOnlyWithoutWhere() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select id, name from t_user");
+        assertEquals("SELECT COUNT(*) FROM t_user", rewritten.countSql());
+        assertEquals("t_user", rewritten.countTable());
+    }
+
+    @Test
+    void groupByIsWrapped() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select age, count(*) from t_user group by age");
+        assertEquals("select count(*) from(select age, count(*) from t_user group by age) as total_query", rewritten.countSql());
+    }
+
+    @Test
+    void aggregateSelectIsWrapped() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select max(age) from t_user");
+        assertEquals("select count(*) from(select max(age) from t_user) as total_query", rewritten.countSql());
+    }
+
+    @Test
+    void parameterInSelectListIsWrapped() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select id, ? as tag from t_user");
+        assertEquals("select count(*) from(select id, ? as tag from t_user) as total_query", rewritten.countSql());
+    }
+
+    @Test
+    void unparsableSqlIsWrapped() {
+        // 解析不了的sql连order by也原样保留
+        String sql = "select * from t_user where name sounds like ? order by name";
+        SqlRewriter.Rewritten rewritten = rewriter.parse(sql);
+        assertEquals("select count(*) from(" + sql + ") as total_query", rewritten.countSql());
+        assertEquals(sql, rewritten.unorderedSql());
+        assertNull(rewritten.deferredPageSql());
+        assertNull(rewritten.mergeSql());
+        assertTrue(rewritten.ordered());
+    }
+
+    @Test
+    void orderByIsStripped() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select * from t_user where age > ? order by name desc");
+        assertEquals("SELECT * FROM t_user WHERE age > ?", rewritten.unorderedSql());
+        assertEquals("SELECT COUNT(*) FROM t_user WHERE age > ?", rewritten.countSql());
+        // 分页sql保留原来的排序
+        assertEquals("select * from t_user where age > ? order by name desc LIMIT ?, ?", rewritten.pageSql());
+    }
+
+    @Test
+    void orderByWithParameterIsKept() {
+        String sql = "select * from t_user order by field(id, ?)";
+        SqlRewriter.Rewritten rewritten = rewriter.parse(sql);
+        assertEquals(sql, rewritten.unorderedSql());
+        assertEquals("select count(*) from(" + sql + ") as total_query", rewritten.countSql());
+    }
+
+    @Test
+    void orderByWithLimitIsKept() {
+        String sql = "select * from t_user order by age limit 10";
+        SqlRewriter.Rewritten rewritten = rewriter.parse(sql);
+        assertEquals(sql, rewritten.unorderedSql());
+        assertEquals("select count(*) from(" + sql + ") as total_query", rewritten.countSql());
+    }
+
+    @Test
+    void leftJoinOnUniqueKeyIsRemoved() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse(
+                "select u.*, d.name from t_user u left join t_dept d on u.dept_id = d.id where u.age > ?");
+        assertEquals("SELECT COUNT(*) FROM t_user u WHERE u.age > ?", rewritten.countSql());
+    }
+
+    @Test
+    void leftJoinReferencedInWhereIsKept() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse(
+                "select u.* from t_user u left join t_dept d on u.dept_id = d.id where d.name = ?");
+        assertEquals("SELECT COUNT(*) FROM t_user u LEFT JOIN t_dept d ON u.dept_id = d.id WHERE d.name = ?", rewritten.countSql());
+    }
+
+    @Test
+    void leftJoinReferencedByAnotherJoinIsKept() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse(
+                "select u.* from t_user u left join t_dept d on u.dept_id = d.id left join t_org o on o.id = d.org_id");
+        assertEquals("SELECT COUNT(*) FROM t_user u LEFT JOIN t_dept d ON u.dept_id = d.id", rewritten.countSql());
+    }
+
+    @Test
+    void leftJoinOnNonUniqueColumnIsKept() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse(
+                "select u.* from t_user u left join t_login l on l.user_id = u.id");
+        assertEquals("SELECT COUNT(*) FROM t_user u LEFT JOIN t_login l ON l.user_id = u.id", rewritten.countSql());
+    }
+
+    @Test
+    void leftJoinWithUnqualifiedWhereColumnIsKept() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse(
+                "select u.* from t_user u left join t_dept d on u.dept_id = d.id where age > ?");
+        assertEquals("SELECT COUNT(*) FROM t_user u LEFT JOIN t_dept d ON u.dept_id = d.id WHERE age > ?", rewritten.countSql());
+    }
+
+    @Test
+    void innerJoinIsKept() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse(
+                "select u.* from t_user u join t_dept d on u.dept_id = d.id");
+        assertEquals("SELECT COUNT(*) FROM t_user u JOIN t_dept d ON u.dept_id = d.id", rewritten.countSql());
+    }
+
+    @Test
+    void mergeSqlAppendsPrimaryKey() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select * from t_user order by age desc");
+        assertEquals("select * from t_user order by age desc, id", rewritten.mergeSql());
+        assertEquals(List.of(new SqlRewriter.SortKey("age", true), new SqlRewriter.SortKey("id", false)), rewritten.mergeOrder());
+    }
+
+    @Test
+    void mergeSqlWithoutOrderBy() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select * from t_user where age > ?");
+        assertEquals("select * from t_user where age > ? ORDER BY id", rewritten.mergeSql());
+        assertEquals(List.of(new SqlRewriter.SortKey("id", false)), rewritten.mergeOrder());
+    }
+
+    @Test
+    void mergeSqlKeepsExistingPrimaryKeyOrder() {
+        SqlRewriter.Rewritten rewritten = rewriter.parse("select id, name from t_user order by id desc");
+        assertEquals("select id, name from t_user order by id desc", rewritten.mergeSql());
+        assertEquals(List.of(new SqlRewriter.SortKey("id", true)), rewritten.mergeOrder());
+    }
+
+    @Test
+    void mergeSqlNeedsSortColumnsInResult() {
+        assertNull(rewriter.parse("select name from t_user order by age").mergeSql());
+        assertNull(rewriter.parse("select name from t_user").mergeOrder());
+    }
+
+    @Test
+    void mergeSqlRejectsCrossShardShapes() {
+        assertNull(rewriter.parse("select u.* from t_user u left join t_dept d on u.dept_id = d.id").mergeSql());
+        assertNull(rewriter.parse("select distinct * from t_user").mergeSql());
+        assertNull(rewriter.parse("select count(*) from t_user").mergeSql());
+        assertNull(rewriter.parse("select * from t_user order by id limit 10").mergeSql());
+        assertNull(rewriter.parse("select * from t_user order by lower(name)").mergeSql());
+    }
+
+    @Test
+    void orderedOnlyForOuterOrderBy() {
+        assertTrue(rewriter.parse("select * from t_user order by age").ordered());
+        assertTrue(rewriter.parse("select name from t_user order by age").ordered());
+        assertFalse(rewriter.parse("select * from t_user where age > ?").ordered());
+        assertFalse(rewriter.parse("select * from (select * from t_user order by age limit 10) t").ordered());
+        assertFalse(rewriter.parse("update t_user set age = ? where id = ?").ordered());
+    }
+}